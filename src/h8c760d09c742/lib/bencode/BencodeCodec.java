@@ -0,0 +1,505 @@
+package h8c760d09c742.lib.bencode;
+
+import java.io.IOException;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import h8c760d09c742.lib.bencode.BencodeEventReader.Event;
+
+/**
+ * Binding of Bencode dictionaries to the fields of Java classes, e.g. for messages of a protocol.
+ * Documents are decoded directly from the input into new instances and instances are encoded directly to the output of a writer,
+ * without building {@link BencodeObject}s in between.<br>
+ * The codec of a class is compiled once (see {@link #of(Class)}): every non-static, non-transient field of the class and its superclasses,
+ * except those annotated with {@link Ignore}, is bound to the dictionary key given by {@link Key} or its name.
+ * Fields are accessed by method handles, the class needs a constructor without parameters, which may be private.
+ * Supported field types are {@code long}, {@code int}, {@code boolean} (as 0 or 1) and their wrappers, {@link String} (UTF-8), {@code byte[]},
+ * {@link BencodeObject} and its subclasses (taken as they are), other bound classes and {@link List}s of any of these.<br>
+ * When decoding, keys without a field are skipped and a missing key is an error unless its field is annotated with {@link Optional},
+ * which then keeps the value assigned by the constructor. When encoding, the entries are written in canonical order
+ * and {@code null}-values of optional fields are omitted. Objects to encode must not contain cycles.
+ * A codec is immutable and may be shared by any number of threads.
+ */
+public final class BencodeCodec<T> {
+
+	/**
+	 * Sets the dictionary key bound to a field, instead of the name of the field.
+	 */
+	@Documented
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.FIELD)
+	public @interface Key {
+		/** The key, encoded as UTF-8. */
+		String value();
+	}
+
+	/**
+	 * Marks a field whose key may be missing, {@code null}-values are not encoded.
+	 */
+	@Documented
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.FIELD)
+	public @interface Optional {
+	}
+
+	/**
+	 * Excludes a field from binding.
+	 */
+	@Documented
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.FIELD)
+	public @interface Ignore {
+	}
+
+	private static final ClassValue<BencodeCodec<?>> CODECS = new ClassValue<BencodeCodec<?>>() {
+		@Override
+		protected BencodeCodec<?> computeValue(Class<?> type) {
+			return new BencodeCodec<>(type);
+		}
+	};
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/**
+	 * Conversion of values of a reference type.
+	 * Mismatching input is reported by an {@link IOException} which is not a {@link BencodeException}, to be completed by the caller.
+	 */
+	private static abstract class Value {
+		abstract Object read(BencodeEventReader events, Event ev) throws IOException;
+		abstract void write(BencodeWriter writer, Object value) throws IOException;
+	}
+
+	private static final Value LONG = new Value() {
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			if (ev != Event.INTEGER) throw new IOException("Expected integer");
+			return events.longValue();
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putInteger((Long)value);
+		}
+	};
+
+	private static final Value INT = new Value() {
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			return intValue(events, ev);
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putInteger((Integer)value);
+		}
+	};
+
+	private static final Value BOOLEAN = new Value() {
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			return booleanValue(events, ev);
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putInteger((Boolean)value ? 1 : 0);
+		}
+	};
+
+	private static final Value STRING = new Value() {
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			if (ev != Event.STRING) throw new IOException("Expected string");
+			return events.getString();
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putString((String)value);
+		}
+	};
+
+	private static final Value BYTES = new Value() {
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			if (ev != Event.STRING) throw new IOException("Expected string");
+			return events.getData();
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putString((byte[])value);
+		}
+	};
+
+	/**
+	 * Bencode objects of a particular type, read completely.
+	 */
+	private static final class ObjectValue extends Value {
+		private final Class<?> type;
+
+		ObjectValue(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			if (ev == Event.END) throw new IOException("Expected value");
+			// checked before reading, the types are given by the first token
+			if (type == BencodeInteger.class && ev != Event.INTEGER
+					|| type == BencodeString.class && ev != Event.STRING
+					|| BencodeList.class.isAssignableFrom(type) && ev != Event.START_LIST
+					|| BencodeDictionary.class.isAssignableFrom(type) && ev != Event.START_DICT) {
+				throw new IOException("Expected " + type.getSimpleName());
+			}
+			BencodeObject obj = BencodeProjection.readValue(events, ev, false);
+			if (!type.isInstance(obj)) throw new IOException("Expected " + type.getSimpleName());
+			return obj;
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putObject((BencodeObject)value);
+		}
+	}
+
+	/**
+	 * Instances of another bound class, whose codec is looked up on first use to allow for recursive types.
+	 */
+	private static final class BoundValue extends Value {
+		private final Class<?> type;
+		private volatile BencodeCodec<?> codec;
+
+		BoundValue(Class<?> type) {
+			this.type = type;
+		}
+
+		private BencodeCodec<?> codec() {
+			BencodeCodec<?> c = codec;
+			if (c == null) codec = c = CODECS.get(type);
+			return c;
+		}
+
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			return codec().readBound(events, ev);
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			codec().writeBound(writer, value);
+		}
+	}
+
+	private static final class ListValue extends Value {
+		private final Value element;
+
+		ListValue(Value element) {
+			this.element = element;
+		}
+
+		@Override
+		Object read(BencodeEventReader events, Event ev) throws IOException {
+			if (ev != Event.START_LIST) throw new IOException("Expected list");
+			List<Object> list = new ArrayList<>();
+			while ((ev = events.next()) != Event.END) list.add(element.read(events, ev));
+			return list;
+		}
+
+		@Override
+		void write(BencodeWriter writer, Object value) throws IOException {
+			writer.putToken((byte)'l');
+			for (Object o : (List<?>)value) {
+				if (o == null) throw new BencodeException("List elements must not be null.");
+				element.write(writer, o);
+			}
+			writer.putToken((byte)'e');
+		}
+	}
+
+	private static int intValue(BencodeEventReader events, Event ev) throws IOException {
+		if (ev != Event.INTEGER) throw new IOException("Expected integer");
+		long v = events.longValue();
+		if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new IOException("Integer out of range");
+		return (int)v;
+	}
+
+	private static boolean booleanValue(BencodeEventReader events, Event ev) throws IOException {
+		if (ev != Event.INTEGER) throw new IOException("Expected integer");
+		return events.longValue() != 0;
+	}
+
+	/**
+	 * Determines the conversion of a type of field or list element.
+	 */
+	private static Value valueOf(Type type) {
+		if (type instanceof ParameterizedType && ((ParameterizedType)type).getRawType() == List.class) {
+			return new ListValue(valueOf(((ParameterizedType)type).getActualTypeArguments()[0]));
+		}
+		if (!(type instanceof Class)) throw new IllegalArgumentException("Unsupported type " + type);
+		Class<?> c = (Class<?>)type;
+		if (c == Long.class) return LONG;
+		if (c == Integer.class) return INT;
+		if (c == Boolean.class) return BOOLEAN;
+		if (c == String.class) return STRING;
+		if (c == byte[].class) return BYTES;
+		if (BencodeObject.class.isAssignableFrom(c)) return new ObjectValue(c);
+		if (c.isPrimitive() || c.isArray() || c.isInterface() || c.isEnum() || Modifier.isAbstract(c.getModifiers()) || c.getName().startsWith("java.")) {
+			throw new IllegalArgumentException("Unsupported type " + c.getName());
+		}
+		return new BoundValue(c);
+	}
+
+	/**
+	 * Field bound to a key, accessed by handles adapted to {@code Object} receivers.
+	 * Primitive fields are accessed without boxing.
+	 */
+	private static final class Property {
+		final String name;
+		final String key;
+		final byte[] keyBytes;
+		final boolean optional;
+		final Class<?> kind;
+		final Value value;
+		final MethodHandle getter, setter;
+
+		Property(Field field) throws IllegalAccessException {
+			Key k = field.getAnnotation(Key.class);
+			this.name = field.getDeclaringClass().getName() + "." + field.getName();
+			this.key = k != null ? k.value() : field.getName();
+			this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			this.optional = field.isAnnotationPresent(Optional.class);
+			Class<?> type = field.getType();
+			this.kind = type == long.class || type == int.class || type == boolean.class ? type : Object.class;
+			this.value = kind == Object.class ? valueOf(field.getGenericType()) : null;
+			field.setAccessible(true);
+			this.getter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(kind, Object.class));
+			this.setter = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, kind));
+		}
+
+		void read(Object obj, BencodeEventReader events, Event ev) throws Throwable {
+			if (kind == long.class) {
+				if (ev != Event.INTEGER) throw new IOException("Expected integer");
+				setter.invokeExact(obj, events.longValue());
+			} else if (kind == int.class) {
+				setter.invokeExact(obj, intValue(events, ev));
+			} else if (kind == boolean.class) {
+				setter.invokeExact(obj, booleanValue(events, ev));
+			} else {
+				setter.invokeExact(obj, value.read(events, ev));
+			}
+		}
+
+		void write(BencodeWriter writer, Object obj) throws Throwable {
+			if (kind == long.class) {
+				writer.putString(keyBytes);
+				writer.putInteger((long)getter.invokeExact(obj));
+			} else if (kind == int.class) {
+				writer.putString(keyBytes);
+				writer.putInteger((int)getter.invokeExact(obj));
+			} else if (kind == boolean.class) {
+				writer.putString(keyBytes);
+				writer.putInteger((boolean)getter.invokeExact(obj) ? 1 : 0);
+			} else {
+				Object v = (Object)getter.invokeExact(obj);
+				if (v == null) {
+					if (optional) return;
+					throw new BencodeException("Missing value of field " + name);
+				}
+				writer.putString(keyBytes);
+				value.write(writer, v);
+			}
+		}
+	}
+
+	private final Class<T> type;
+	private final MethodHandle constructor;
+	// in canonical order of the keys
+	private final Property[] properties;
+
+	private BencodeCodec(Class<T> type) {
+		this.type = type;
+		List<Property> props = new ArrayList<>();
+		try {
+			Constructor<T> ctor = type.getDeclaredConstructor();
+			ctor.setAccessible(true);
+			this.constructor = LOOKUP.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+			for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					int mod = f.getModifiers();
+					if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic() || f.isAnnotationPresent(Ignore.class)) continue;
+					props.add(new Property(f));
+				}
+			}
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " lacks a constructor without parameters", e);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IllegalArgumentException("Cannot bind " + type.getName(), e);
+		}
+		props.sort((a, b) -> BencodeDictionary.KEY_ORDER.compare(a.key, b.key));
+		for (int n = 1; n < props.size(); n++) {
+			if (props.get(n - 1).key.equals(props.get(n).key)) throw new IllegalArgumentException("Duplicate key '" + props.get(n).key + "' in " + type.getName());
+		}
+		this.properties = props.toArray(new Property[0]);
+	}
+
+	/**
+	 * Gets the codec of a class, which is compiled on first use.
+	 * @param type The class to bind.
+	 * @return The codec shared by all users of the class.
+	 * @throws IllegalArgumentException If the class cannot be bound, e.g. because it has a field of an unsupported type.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> BencodeCodec<T> of(Class<T> type) {
+		return (BencodeCodec<T>)CODECS.get(type);
+	}
+
+	/**
+	 * Gets the class bound by this codec.
+	 * @return The class.
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the dictionary keys bound to fields.
+	 * @return The keys in the order in which they are encoded.
+	 */
+	public String[] getKeys() {
+		String[] keys = new String[properties.length];
+		for (int n = 0; n < keys.length; n++) keys[n] = properties[n].key;
+		return keys;
+	}
+
+	/**
+	 * Decodes the next document from a reader.
+	 * @param reader The reader providing the input.
+	 * @return A new instance or {@code null} if the end of input has been reached.
+	 * @throws BencodeException In case of a parsing error, input not matching the bound class or a read failure.
+	 * @see #read(BencodeEventReader)
+	 */
+	public T read(BencodeReader reader) throws IOException {
+		return read(new BencodeEventReader(reader));
+	}
+
+	/**
+	 * Decodes the next document from an event reader, which must be positioned between top-level objects.
+	 * @param events The event reader providing the input.
+	 * @return A new instance or {@code null} if the end of input has been reached.
+	 * @throws BencodeException In case of a parsing error, input not matching the bound class or a read failure.
+	 */
+	public T read(BencodeEventReader events) throws IOException {
+		Event ev = events.next();
+		if (ev == null) return null;
+		return type.cast(readBound(events, ev));
+	}
+
+	private static BencodeException mismatch(BencodeEventReader events, long start, String message) {
+		return new BencodeException("Parsing error @" + events.getTokenOffset() + " in object starting @" + start, new IOException(message));
+	}
+
+	private Object readBound(BencodeEventReader events, Event ev) throws IOException {
+		long start = events.getTokenOffset();
+		if (ev != Event.START_DICT) throw mismatch(events, start, "Expected dictionary for " + type.getName());
+		Object obj;
+		try {
+			obj = (Object)constructor.invokeExact();
+		} catch (Throwable e) {
+			throw rethrow(e);
+		}
+		boolean[] seen = new boolean[properties.length];
+		// keys of canonical input arrive in the order of the properties
+		int cursor = 0;
+		while ((ev = events.next()) != Event.END) {
+			int match = -1;
+			if (cursor < properties.length && events.dataEquals(properties[cursor].keyBytes)) {
+				match = cursor;
+			} else {
+				for (int n = 0; n < properties.length; n++) {
+					if (n != cursor && events.dataEquals(properties[n].keyBytes)) {
+						match = n;
+						break;
+					}
+				}
+			}
+			if (match < 0) {
+				events.skipValue();
+				continue;
+			}
+			Property p = properties[match];
+			ev = events.next();
+			try {
+				p.read(obj, events, ev);
+			} catch (BencodeException e) {
+				throw e;
+			} catch (IOException e) {
+				throw mismatch(events, start, e.getMessage() + " for field " + p.name);
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+			seen[match] = true;
+			cursor = match + 1;
+		}
+		for (int n = 0; n < properties.length; n++) {
+			if (!seen[n] && !properties[n].optional) throw mismatch(events, start, "Missing key '" + properties[n].key + "' for field " + properties[n].name);
+		}
+		return obj;
+	}
+
+	/**
+	 * Encodes an instance to the output of a writer, i.e. it is passed on entirely when this function returns.
+	 * Positions are only recorded for {@link BencodeObject}s held by fields, no hashes are computed (see {@link BencodeWriter#addDigest(String, String...)}).
+	 * @param writer The writer to encode to.
+	 * @param obj The instance to encode.
+	 * @throws BencodeException If a field which is not optional holds {@code null}, the instance is not written completely then.
+	 * @throws IOException If a write error occurs.
+	 */
+	public void write(BencodeWriter writer, T obj) throws IOException {
+		if (writer.closed) throw new IOException("Writer is closed");
+		try {
+			writeBound(writer, type.cast(obj));
+			writer.flushTokens();
+		} catch (IOException | RuntimeException e) {
+			writer.discardTokens();
+			throw e;
+		}
+	}
+
+	private void writeBound(BencodeWriter writer, Object obj) throws IOException {
+		writer.putToken((byte)'d');
+		for (Property p : properties) {
+			try {
+				p.write(writer, obj);
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+		writer.putToken((byte)'e');
+	}
+
+	/**
+	 * Passes on failures from field access, which are unchecked or I/O errors.
+	 */
+	private static IOException rethrow(Throwable e) {
+		if (e instanceof IOException) return (IOException)e;
+		if (e instanceof RuntimeException) throw (RuntimeException)e;
+		if (e instanceof Error) throw (Error)e;
+		return new BencodeException(e);
+	}
+
+}
@@ -0,0 +1,200 @@
+package h8c760d09c742.lib.bencode;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * List or dictionary, recording modifications so that cached or lazily retained encodings can be checked for being up to date.
+ * Containers know the containers holding them, and a modification is passed up to all of them right away,
+ * so checking an encoding costs the same regardless of the size of the structure below it.
+ */
+abstract class BencodeContainer extends BencodeObject {
+
+	// time of the last modification of this container or any container below it
+	private long modified;
+	// containers holding this one, the first separately as containers are rarely shared, once per occurrence
+	private BencodeContainer owner;
+	private BencodeContainer[] owners;
+
+	BencodeContainer() { }
+
+	/**
+	 * Records a modification of this container, invalidating cached encodings of it and of the containers holding it.
+	 * The containers above are only visited until one already recorded a modification since the clock last advanced.
+	 */
+	@Override
+	final void modified() {
+		long time = now() + 1;
+		ArrayDeque<BencodeContainer> pending = null;
+		BencodeContainer c = this;
+		while (c != null) {
+			BencodeContainer next = null;
+			// containers holding a modified one are never recorded earlier, so the ones above have been visited before
+			if (c.modified < time) {
+				c.modified = time;
+				next = c.owner;
+				if (c.owners != null) {
+					for (BencodeContainer o : c.owners) {
+						if (o == null) continue;
+						if (pending == null) pending = new ArrayDeque<>();
+						pending.push(o);
+					}
+				}
+			}
+			c = next != null ? next : pending != null ? pending.poll() : null;
+		}
+	}
+
+	@Override
+	final void modified(BencodeObject removed, BencodeObject added) {
+		if (removed instanceof BencodeContainer) ((BencodeContainer)removed).release(this);
+		adopt(added);
+		modified();
+	}
+
+	/**
+	 * Records this container as holding an object, without recording a modification, e.g. for values decoded lazily.
+	 */
+	final void adopt(BencodeObject obj) {
+		if (!(obj instanceof BencodeContainer)) return;
+		BencodeContainer c = (BencodeContainer)obj;
+		if (c.owner == null) {
+			c.owner = this;
+		} else if (c.owners == null) {
+			c.owners = new BencodeContainer[] { this };
+		} else {
+			int n = 0;
+			while (n < c.owners.length && c.owners[n] != null) n++;
+			if (n == c.owners.length) c.owners = Arrays.copyOf(c.owners, n * 2);
+			c.owners[n] = this;
+		}
+	}
+
+	/**
+	 * Removes one occurrence of a container holding this one.
+	 */
+	private void release(BencodeContainer container) {
+		if (owner == container) {
+			owner = null;
+			return;
+		}
+		if (owners == null) return;
+		for (int n = 0; n < owners.length; n++) {
+			if (owners[n] == container) {
+				owners[n] = null;
+				return;
+			}
+		}
+	}
+
+	@Override
+	final boolean unchangedSince(long time) {
+		return modified <= time;
+	}
+
+	/**
+	 * Iterates the elements of a list, recording elements removed through the iterator.
+	 */
+	final Iterator<BencodeObject> elements(Iterator<BencodeObject> it) {
+		return new Iterator<BencodeObject>() {
+			private BencodeObject last;
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public BencodeObject next() {
+				return last = it.next();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				modified(last, null);
+			}
+		};
+	}
+
+	/**
+	 * Creates a view of the keys or entries of a dictionary backed by the specified map,
+	 * recording entries removed through the view and values replaced through its entries.
+	 * @param map The map holding the entries.
+	 * @param element Provides the element of the view for an entry of the map.
+	 * @param keys Whether the elements are the keys of the map, which are then looked up in the map directly.
+	 */
+	final <K, T> Set<T> view(Map<K, BencodeObject> map, Function<Map.Entry<K, BencodeObject>, T> element, boolean keys) {
+		return new AbstractSet<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				Iterator<Map.Entry<K, BencodeObject>> it = map.entrySet().iterator();
+				return new Iterator<T>() {
+					private BencodeObject last;
+
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public T next() {
+						Map.Entry<K, BencodeObject> e = it.next();
+						last = e.getValue();
+						return element.apply(e);
+					}
+
+					@Override
+					public void remove() {
+						it.remove();
+						modified(last, null);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return map.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return keys ? map.containsKey(o) : super.contains(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				if (!keys) return super.remove(o);
+				if (!map.containsKey(o)) return false;
+				modified(map.remove(o), null);
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Creates an entry of a view (see {@link #view(Map, Function, boolean)}) under the specified key,
+	 * replacing values in the backing entry and recording the replacement.
+	 */
+	final <K> Map.Entry<K, BencodeObject> entry(K key, Map.Entry<?, BencodeObject> backing) {
+		return new AbstractMap.SimpleEntry<K, BencodeObject>(key, backing.getValue()) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public BencodeObject setValue(BencodeObject value) {
+				if (value == null) throw new NullPointerException("Use remove() to remove an entry.");
+				BencodeObject old = backing.setValue(value);
+				super.setValue(value);
+				modified(old, value);
+				return old;
+			}
+		};
+	}
+
+}
@@ -1,20 +1,52 @@
 
 package h8c760d09c742.lib.bencode;
 
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 /**
  * String keys mapped to values, lists or other dictionaries in Bencoding.
+ * Keys are ordered by code point, which matches the order of their UTF-8 encoded bytes required by the format.
+ * @see BencodeRawDictionary
  */
-public class BencodeDictionary extends BencodeObject {
+public class BencodeDictionary extends BencodeContainer {
 
+	/**
+	 * Orders strings by code point rather than by UTF-16 unit, so that their order matches the one of their UTF-8 encoding.
+	 */
+	static final Comparator<String> KEY_ORDER = (a, b) -> {
+		int n = Math.min(a.length(), b.length());
+		for (int i = 0; i < n; i++) {
+			int c1 = a.charAt(i), c2 = b.charAt(i);
+			if (c1 != c2) {
+				// surrogates encode code points above U+FFFF and have to be placed after U+E000 to U+FFFF
+				if (c1 >= 0xD800 && c2 >= 0xD800) {
+					c1 += c1 >= 0xE000 ? -0x800 : 0x2000;
+					c2 += c2 >= 0xE000 ? -0x800 : 0x2000;
+				}
+				return c1 - c2;
+			}
+		}
+		return a.length() - b.length();
+	};
+	
 	private final TreeMap<String, BencodeObject> dict;
 	
 	/**
 	 * Create an empty Bencode dictionary.
 	 */
 	public BencodeDictionary() {
-		this.dict = new TreeMap<>();
+		this(new TreeMap<>(KEY_ORDER));
+	}
+	
+	/**
+	 * Creates a dictionary backed by the specified map, subclasses keeping their entries otherwise pass {@code null}.
+	 */
+	BencodeDictionary(TreeMap<String, BencodeObject> dict) {
+		this.dict = dict;
 	}
 	
 	@Override
@@ -32,6 +64,33 @@ public class BencodeDictionary extends BencodeObject {
 		visitor.visit(this);
 	}
 	
+	/**
+	 * Iterates the entries in the order they are to be written, keyed by {@link String} or {@link BencodeKey}.
+	 */
+	Iterator<? extends Map.Entry<?, BencodeObject>> entryIterator() {
+		return getDictionary().entrySet().iterator();
+	}
+	
+	/**
+	 * Gets the key-set of the dictionary.
+	 * Keys removed through the set are recorded as a modification of the dictionary.
+	 * @return The set of keys in the dictionary.
+	 */
+	@Override
+	public Set<String> getKeys() {
+		return view(getDictionary(), Map.Entry::getKey, true);
+	}
+	
+	/**
+	 * Gets the entry-set of the dictionary.
+	 * Entries removed through the set and values replaced through its entries are recorded as a modification of the dictionary.
+	 * @return The set of entries in the dictionary.
+	 */
+	@Override
+	public Set<Map.Entry<String, BencodeObject>> getEntries() {
+		return view(getDictionary(), e -> entry(e.getKey(), e), false);
+	}
+	
 	/**
 	 * Puts an object in the dictionary.
 	 * @param key Key-string under which to store the value.
@@ -39,8 +98,7 @@ public class BencodeDictionary extends BencodeObject {
 	 * @return
 	 */
 	public BencodeDictionary put(String key, BencodeObject obj) {
-		if (obj != null) dict.put(key, obj);
-		else dict.remove(key);
+		modified(obj != null ? dict.put(key, obj) : dict.remove(key), obj);
 		return this;
 	}
 	
@@ -51,7 +109,7 @@ public class BencodeDictionary extends BencodeObject {
 	 * @return This dictionary object.
 	 */
 	public BencodeDictionary put(String key, String value) {
-		dict.put(key, new BencodeString(value));
+		modified(dict.put(key, new BencodeString(value)), null);
 		return this;
 	}
 	
@@ -62,7 +120,7 @@ public class BencodeDictionary extends BencodeObject {
 	 * @return This dictionary object.
 	 */
 	public BencodeDictionary put(String key, long value) {
-		dict.put(key, new BencodeInteger(value));
+		modified(dict.put(key, new BencodeInteger(value)), null);
 		return this;
 	}
 
@@ -0,0 +1,104 @@
+package h8c760d09c742.lib.bencode;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Hash of the encoded form of a subtree, computed while a reader or writer processes it.
+ * The subtree is selected by a path of dictionary keys starting at the top-level object,
+ * e.g. {@code "info"} for the info-hash of a torrent.
+ * The bytes are hashed exactly as read or written, so the hash also reflects non-canonical input.
+ * @see BencodeIO#addDigest(String, String...)
+ */
+public final class BencodeDigest {
+
+	private final MessageDigest md;
+	private final String[] path;
+	private byte[] value;
+	private BencodeObject object;
+	boolean active;
+
+	BencodeDigest(MessageDigest md, String[] path) {
+		this.md = md;
+		this.path = path.clone();
+	}
+
+	/**
+	 * Gets the name of the hash algorithm.
+	 * @return The algorithm, e.g. "SHA-1".
+	 */
+	public String getAlgorithm() {
+		return md.getAlgorithm();
+	}
+
+	/**
+	 * Gets the path of the subtree.
+	 * @return The dictionary keys leading to the subtree, empty for top-level objects.
+	 */
+	public String[] getPath() {
+		return path.clone();
+	}
+
+	/**
+	 * Gets the hash of the subtree found in the last top-level object processed.
+	 * @return The hash or {@code null} if the object did not contain the path.
+	 */
+	public byte[] getValue() {
+		return value == null ? null : value.clone();
+	}
+
+	/**
+	 * Gets the subtree from which the hash was computed.
+	 * @return The object or {@code null} if the last top-level object did not contain the path.
+	 */
+	public BencodeObject getObject() {
+		return object;
+	}
+
+	int depth() {
+		return path.length;
+	}
+
+	/**
+	 * Determines whether the path leads to the value about to be processed.
+	 * @param keys The keys of the enclosing dictionaries as {@link String} or {@link BencodeKey}, {@code null} for lists.
+	 */
+	boolean matches(Object[] keys) {
+		return matches(keys, path.length);
+	}
+
+	/**
+	 * Determines whether the path starts with the keys of the enclosing dictionaries of a value.
+	 * @param keys The keys of the enclosing dictionaries as {@link String} or {@link BencodeKey}, {@code null} for lists.
+	 * @param depth The number of enclosing lists and dictionaries, at most the length of the path.
+	 */
+	boolean matches(Object[] keys, int depth) {
+		for (int n = 0; n < depth; n++) {
+			Object k = keys[n];
+			if (k == null || !path[n].equals(k instanceof BencodeKey ? ((BencodeKey)k).getString() : k)) return false;
+		}
+		return true;
+	}
+
+	void clear() {
+		md.reset();
+		value = null;
+		object = null;
+		active = false;
+	}
+
+	void update(byte[] data, int offset, int length) {
+		md.update(data, offset, length);
+	}
+
+	void update(ByteBuffer data) {
+		md.update(data);
+	}
+
+	void complete(BencodeObject obj) {
+		value = md.digest();
+		object = obj;
+		active = false;
+	}
+
+}
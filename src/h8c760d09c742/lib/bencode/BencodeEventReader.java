@@ -0,0 +1,363 @@
+package h8c760d09c742.lib.bencode;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pull-based processing of Bencoded input without building objects.
+ * The input is consumed token by token through {@link #next()}, the current token is described by the typed accessors.
+ * String contents are only read if requested, otherwise they are skipped.<br>
+ * The reader uses the input of any {@link BencodeReader}, which should not be used directly at the same time.
+ */
+public class BencodeEventReader implements Closeable {
+
+	/**
+	 * Kinds of tokens in Bencoded input.
+	 */
+	public enum Event {
+		/** Beginning of a dictionary. */
+		START_DICT,
+		/** Beginning of a list. */
+		START_LIST,
+		/** Key-string of a dictionary entry, the value follows as the next event. */
+		KEY,
+		/** Integer value. */
+		INTEGER,
+		/** String value. */
+		STRING,
+		/** End of the innermost list or dictionary. */
+		END
+	}
+	
+	private final BencodeReader source;
+	private Event event;
+	private int depth, eventDepth;
+	private long start;
+	private boolean expectKey;
+	private long nesting;
+	private long[] deepNesting;
+	
+	private long value;
+	private int length, remaining;
+	private long dataOffset;
+	private byte[] scratch = new byte[64];
+	private int scratchPos = -1;
+	
+	/**
+	 * Creates a new event reader.
+	 * @param source The reader providing the input, its position is advanced as events are read.
+	 */
+	public BencodeEventReader(BencodeReader source) {
+		this.source = source;
+	}
+	
+	BencodeReader source() {
+		return source;
+	}
+	
+	private void push(boolean dict) {
+		int bit = depth & 63;
+		if (depth < 64) {
+			nesting = dict ? nesting | 1L << bit : nesting & ~(1L << bit);
+			return;
+		}
+		int n = (depth >> 6) - 1;
+		if (deepNesting == null) deepNesting = new long[4];
+		if (n >= deepNesting.length) deepNesting = Arrays.copyOf(deepNesting, n * 2);
+		deepNesting[n] = dict ? deepNesting[n] | 1L << bit : deepNesting[n] & ~(1L << bit);
+	}
+	
+	private boolean inDict() {
+		return depth > 0 && ((depth < 64 ? nesting : deepNesting[(depth >> 6) - 1]) & 1L << (depth & 63)) != 0;
+	}
+	
+	private BencodeException error(String message) {
+		return error(new IOException(message));
+	}
+	
+	private BencodeException error(IOException e) {
+		return new BencodeException("Parsing error @" + source.getOffset() + " in object starting @" + start, e);
+	}
+	
+	/**
+	 * Reads the next token.
+	 * Unread content of a preceding string is skipped.
+	 * @return The kind of the token or {@code null} if the end of input has been reached outside of any list or dictionary.
+	 * @throws BencodeException In case of a parsing error or read failure.
+	 */
+	public Event next() throws IOException {
+		skipData();
+		start = source.getOffset();
+		byte chr;
+		try {
+			chr = source.readByte();
+		} catch (EOFException e) {
+			if (depth == 0) return event = null;
+			if (!inDict()) throw error("Unexpected end of list");
+			throw error(expectKey ? "Unexpected end of dictionary" : "End of input where dictionary value was expected");
+		}
+		try {
+			if (chr == 'e' && depth > 0) {
+				if (!expectKey && inDict()) throw new IOException("Missing value in dictionary");
+				eventDepth = --depth;
+				expectKey = inDict();
+				return event = Event.END;
+			}
+			eventDepth = depth;
+			if (expectKey) {
+				if (!(chr >= 0x30 && chr < 0x3A)) throw new IOException("Illegal dictionary key");
+				readLength(chr);
+				expectKey = false;
+				return event = Event.KEY;
+			}
+			if (chr == 'i') {
+				value = source.readInteger();
+				event = Event.INTEGER;
+			} else if (chr == 'l' || chr == 'd') {
+				if (depth >= source.getMaxDepth()) throw new IOException("Maximum nesting depth exceeded");
+				depth++;
+				push(chr == 'd');
+				expectKey = chr == 'd';
+				return event = chr == 'd' ? Event.START_DICT : Event.START_LIST;
+			} else if (chr >= 0x30 && chr < 0x3A) {
+				readLength(chr);
+				event = Event.STRING;
+			} else {
+				throw new IOException(String.format("Unknown start of object 0x%02X", chr & 0xFF));
+			}
+			expectKey = inDict();
+			return event;
+		} catch (BencodeException e) {
+			throw e;
+		} catch (IOException e) {
+			throw error(e);
+		}
+	}
+	
+	private void readLength(byte first) throws IOException {
+		long strLen = source.readLength(first);
+		if (strLen > Integer.MAX_VALUE) throw new IOException("Maximum string size exceeded");
+		length = remaining = (int)strLen;
+		dataOffset = source.getOffset();
+		scratchPos = -1;
+	}
+	
+	private void skipData() throws IOException {
+		if (remaining > 0) {
+			try {
+				source.skip(remaining);
+			} catch (IOException e) {
+				throw error(e);
+			} finally {
+				remaining = 0;
+			}
+		}
+		scratchPos = -1;
+	}
+	
+	/**
+	 * Skips the value of the current token.
+	 * For the start of a list or dictionary the remaining elements are skipped up to its end, which becomes the current token.
+	 * For a key the associated value is skipped.
+	 * For a string its content is skipped.
+	 * @throws BencodeException In case of a parsing error or read failure.
+	 */
+	public void skipValue() throws IOException {
+		if (event == Event.KEY) next();
+		if (event == Event.START_DICT || event == Event.START_LIST) {
+			int target = eventDepth;
+			while (next() != Event.END || depth > target);
+		} else {
+			skipData();
+		}
+	}
+	
+	/**
+	 * Gets the kind of the current token.
+	 * @return The event last returned by {@link #next()}.
+	 */
+	public Event getEvent() {
+		return event;
+	}
+	
+	/**
+	 * Determines the nesting level of the current token.
+	 * @return The number of lists and dictionaries enclosing the current token, not counting a list or dictionary it starts or ends.
+	 */
+	public int getDepth() {
+		return eventDepth;
+	}
+	
+	/**
+	 * Gets the position of the current token.
+	 * @return Input offset of the first byte of the token.
+	 * @throws IllegalStateException If the offset exceeds the range of {@code int}, see {@link #getTokenOffset()}.
+	 */
+	public int getTokenPosition() {
+		return BencodeIO.checkedPosition(start);
+	}
+	
+	/**
+	 * Gets the position of the current token as a 64-bit offset.
+	 * @return Input offset of the first byte of the token.
+	 */
+	public long getTokenOffset() {
+		return start;
+	}
+	
+	/**
+	 * Gets the current position in the input.
+	 * @return The number of bytes consumed from the underlying reader.
+	 * @throws IllegalStateException If the position exceeds the range of {@code int}, see {@link #getOffset()}.
+	 */
+	public int getPosition() {
+		return BencodeIO.checkedPosition(source.getOffset());
+	}
+	
+	/**
+	 * Gets the current position in the input as a 64-bit offset.
+	 * @return The number of bytes consumed from the underlying reader.
+	 */
+	public long getOffset() {
+		return source.getOffset();
+	}
+	
+	/**
+	 * Returns the value of an integer token.
+	 * @return A 64-bit signed integer.
+	 */
+	public long longValue() {
+		if (event != Event.INTEGER) throw new IllegalStateException("Not an integer token.");
+		return value;
+	}
+	
+	private void checkString() {
+		if (event != Event.STRING && event != Event.KEY) throw new IllegalStateException("Not a string or key token.");
+	}
+	
+	/**
+	 * Returns the length of a string or key token.
+	 * @return The number of bytes in the string.
+	 */
+	public int getLength() {
+		checkString();
+		return length;
+	}
+	
+	/**
+	 * Gets the position of the content of a string or key token.
+	 * @return Input offset of the first byte of the string.
+	 * @throws IllegalStateException If the offset exceeds the range of {@code int}, see {@link #getDataOffset()}.
+	 */
+	public int getDataPosition() {
+		checkString();
+		return BencodeIO.checkedPosition(dataOffset);
+	}
+	
+	/**
+	 * Gets the position of the content of a string or key token as a 64-bit offset.
+	 * @return Input offset of the first byte of the string.
+	 */
+	public long getDataOffset() {
+		checkString();
+		return dataOffset;
+	}
+	
+	/**
+	 * Copies the content of a string or key token, possibly in multiple parts.
+	 * @param dst The destination array.
+	 * @param offset Position in the destination array.
+	 * @param count Maximum number of bytes to copy.
+	 * @return The number of bytes copied, {@code -1} if the whole string has already been read.
+	 * @throws BencodeException In case of a read failure.
+	 */
+	public int readData(byte[] dst, int offset, int count) throws IOException {
+		checkString();
+		int n;
+		if (scratchPos >= 0) {
+			n = Math.min(count, length - scratchPos);
+			if (n <= 0 && count > 0) return -1;
+			System.arraycopy(scratch, scratchPos, dst, offset, n);
+			scratchPos += n;
+		} else {
+			n = Math.min(count, remaining);
+			if (n <= 0 && count > 0) return -1;
+			try {
+				source.read(dst, offset, n);
+			} catch (IOException e) {
+				throw error(e);
+			}
+			remaining -= n;
+		}
+		return n;
+	}
+	
+	/**
+	 * Compares the content of a string or key token, e.g. to look for a specific key.
+	 * No data may have been read by {@link #readData(byte[], int, int)} before.
+	 * @param expected The bytes to compare to.
+	 * @return Whether the string consists of exactly the expected bytes.
+	 * @throws BencodeException In case of a read failure.
+	 */
+	public boolean dataEquals(byte[] expected) throws IOException {
+		checkString();
+		if (expected.length != length) return false;
+		if (scratchPos < 0) {
+			if (remaining != length) throw new IllegalStateException("String has already been read.");
+			if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+			readData(scratch, 0, length);
+			scratchPos = 0;
+		} else if (scratchPos > 0) {
+			throw new IllegalStateException("String has already been read.");
+		}
+		for (int i = 0; i < length; i++) {
+			if (scratch[i] != expected[i]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Compares the content of a string or key token to the UTF-8 encoding of a Unicode string.
+	 * @param expected The string to compare to.
+	 * @return Whether the token matches the string.
+	 * @throws BencodeException In case of a read failure.
+	 * @see #dataEquals(byte[])
+	 */
+	public boolean dataEquals(String expected) throws IOException {
+		return dataEquals(expected.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Returns the unread content of a string or key token as a new array.
+	 * @return A byte array.
+	 * @throws BencodeException In case of a read failure.
+	 */
+	public byte[] getData() throws IOException {
+		checkString();
+		byte[] data = new byte[scratchPos >= 0 ? length - scratchPos : remaining];
+		readData(data, 0, data.length);
+		return data;
+	}
+	
+	/**
+	 * Returns the unread content of a string or key token as Unicode string.
+	 * @return The UTF-8 interpretation of the string.
+	 * @throws BencodeException In case of a read failure.
+	 */
+	public String getString() throws IOException {
+		return new String(getData(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Closes the underlying reader.
+	 * @throws IOException If closing the underlying reader fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+}
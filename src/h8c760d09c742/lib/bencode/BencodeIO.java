@@ -1,9 +1,15 @@
 package h8c760d09c742.lib.bencode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -15,9 +21,9 @@ public abstract class BencodeIO implements Iterable<BencodeObject> {
 	 * Location of a serialized Bencode object in a buffer.
 	 */
 	public class Range {
-		private final int start, end;
+		private final long start, end;
 		
-		Range(int start, int end) {
+		Range(long start, long end) {
 			this.start = start;
 			this.end = end;
 		}
@@ -25,20 +31,50 @@ public abstract class BencodeIO implements Iterable<BencodeObject> {
 		/**
 		 * Starting index (inclusive) of the serialized object.
 		 * @return Zero-based byte offset.
+		 * @throws IllegalStateException If the offset exceeds the range of {@code int}, see {@link #getStartOffset()}.
 		 */
 		public int getStart() {
-			return start;
+			return checkedPosition(start);
 		}
 		
 		/**
 		 * Ending index (exclusive) of the serialized object.
 		 * @return Zero-based byte offset.
+		 * @throws IllegalStateException If the offset exceeds the range of {@code int}, see {@link #getEndOffset()}.
 		 */
 		public int getEnd() {
+			return checkedPosition(end);
+		}
+		
+		/**
+		 * Starting offset (inclusive) of the serialized object.
+		 * @return Zero-based byte offset.
+		 */
+		public long getStartOffset() {
+			return start;
+		}
+		
+		/**
+		 * Ending offset (exclusive) of the serialized object.
+		 * @return Zero-based byte offset.
+		 */
+		public long getEndOffset() {
 			return end;
 		}
 	}
 	
+	/**
+	 * Policy for recording the positions of the objects processed by a reader or writer.
+	 */
+	public enum Tracking {
+		/** Positions are not recorded. */
+		NONE,
+		/** Only the positions of top-level objects (documents) are recorded. */
+		TOP_LEVEL,
+		/** The positions of all objects including nested ones are recorded. */
+		FULL
+	}
+	
 	protected static class BencodeTerminator extends BencodeObject {
 		@Override
 		void accept(BencodeVisitor visitor) throws BencodeException {
@@ -46,12 +82,92 @@ public abstract class BencodeIO implements Iterable<BencodeObject> {
 		}
 	}
 	
+	/**
+	 * Positions of objects in order of their completion, looked up by identity through an open addressing hash index.
+	 */
+	private static final class PositionTable extends AbstractSet<BencodeObject> {
+		private BencodeObject[] objs = new BencodeObject[16];
+		private long[] starts = new long[16], ends = new long[16];
+		private int[] slots = new int[32];
+		private int count;
+		
+		private int slot(BencodeObject obj) {
+			int mask = slots.length - 1;
+			int i = (System.identityHashCode(obj) * 0x9E3779B9) >>> 1 & mask;
+			while (slots[i] != 0 && objs[slots[i] - 1] != obj) i = (i + 1) & mask;
+			return i;
+		}
+		
+		int indexOf(Object obj) {
+			if (!(obj instanceof BencodeObject)) return -1;
+			return slots[slot((BencodeObject)obj)] - 1;
+		}
+		
+		void put(BencodeObject obj, long start, long end) {
+			int s = slot(obj), n = slots[s] - 1;
+			if (n < 0) {
+				if (count == objs.length) {
+					objs = Arrays.copyOf(objs, count * 2);
+					starts = Arrays.copyOf(starts, count * 2);
+					ends = Arrays.copyOf(ends, count * 2);
+				}
+				n = count++;
+				objs[n] = obj;
+				if (count * 2 > slots.length) {
+					slots = new int[slots.length * 2];
+					for (int i = 0; i < count; i++) slots[slot(objs[i])] = i + 1;
+				} else {
+					slots[s] = n + 1;
+				}
+			}
+			starts[n] = start;
+			ends[n] = end;
+		}
+		
+		@Override
+		public void clear() {
+			Arrays.fill(objs, 0, count, null);
+			Arrays.fill(slots, 0);
+			count = 0;
+		}
+		
+		@Override
+		public boolean contains(Object obj) {
+			return indexOf(obj) >= 0;
+		}
+		
+		@Override
+		public int size() {
+			return count;
+		}
+		
+		@Override
+		public Iterator<BencodeObject> iterator() {
+			return new Iterator<BencodeObject>() {
+				private int next = 0;
+				
+				@Override
+				public boolean hasNext() {
+					return next < count;
+				}
+				
+				@Override
+				public BencodeObject next() {
+					if (next >= count) throw new NoSuchElementException();
+					return objs[next++];
+				}
+			};
+		}
+	}
+	
 	protected boolean closed;
-	protected final Map<BencodeObject, BencodeIO.Range> objRef;
+	private Tracking tracking;
+	private final PositionTable positions;
 	
 	protected BencodeIO() {
 		this.closed = false;
-		this.objRef = new LinkedHashMap<>();
+		this.tracking = Tracking.FULL;
+		this.positions = new PositionTable();
 	}
 	
 	/**
@@ -60,21 +176,42 @@ public abstract class BencodeIO implements Iterable<BencodeObject> {
 	 */
 	public abstract int getPosition();
 	
+	/**
+	 * Get the current position of this reader or writer as a 64-bit offset.
+	 * Implementations which may process more than 2 GiB override this function, {@link #getPosition()} then fails beyond that point.
+	 * @return The number of bytes processed since the initial stream, buffer or file position.
+	 */
+	public long getOffset() {
+		return getPosition();
+	}
+	
+	/**
+	 * Narrows a position for the functions reporting positions as {@code int}.
+	 * @param position The position.
+	 * @return The position as {@code int}.
+	 * @throws IllegalStateException If the position exceeds the range of {@code int}.
+	 */
+	protected static int checkedPosition(long position) {
+		if (position > Integer.MAX_VALUE) throw new IllegalStateException("Position " + position + " exceeds the range of int");
+		return (int)position;
+	}
+	
 	/**
 	 * Get the stream or buffer position for an object previously read from or written to this instance.
 	 * @param obj The Bencode object to query.
 	 * @return The range of the specified object or null if the object is not found.
 	 */
 	public BencodeIO.Range getPosition(BencodeObject obj) {
-		return objRef.get(obj);
+		int n = positions.indexOf(obj);
+		return n < 0 ? null : new Range(positions.starts[n], positions.ends[n]);
 	}
 	
 	/**
 	 * Get the set of objects read from or written to this instance.
-	 * @return Set of Bencode objects processed.
+	 * @return Set of Bencode objects processed, in the order of their completion.
 	 */
 	public Set<BencodeObject> getObjects() {
-		return objRef.keySet();
+		return positions;
 	}
 
 	/**
@@ -82,9 +219,203 @@ public abstract class BencodeIO implements Iterable<BencodeObject> {
 	 */
 	@Override
 	public Iterator<BencodeObject> iterator() {
-		return objRef.keySet().iterator();
+		return positions.iterator();
+	}
+	
+	/**
+	 * Determines which object positions are recorded.
+	 * @return The current tracking policy, {@link Tracking#FULL} by default.
+	 */
+	public Tracking getTracking() {
+		return tracking;
+	}
+	
+	/**
+	 * Sets which object positions are to be recorded from now on.
+	 * Positions recorded earlier are retained until {@link #resetPositions()} is called.
+	 * @param tracking The tracking policy.
+	 */
+	public void setTracking(Tracking tracking) {
+		if (tracking == null) throw new IllegalArgumentException("Tracking policy must not be null.");
+		this.tracking = tracking;
+	}
+	
+	/**
+	 * Forgets all recorded object positions, e.g. between documents read from a long-lived stream.
+	 * References to the processed objects are released.
+	 */
+	public void resetPositions() {
+		positions.clear();
+	}
+	
+	/**
+	 * Records the position of a processed object according to the tracking policy.
+	 * @param obj The object read or written.
+	 * @param start Position of the first byte of the object.
+	 * @param end Position after the last byte of the object.
+	 * @param topLevel Whether the object is not nested in a list or dictionary.
+	 */
+	protected void track(BencodeObject obj, long start, long end, boolean topLevel) {
+		if (tracking == Tracking.FULL || topLevel && tracking == Tracking.TOP_LEVEL) positions.put(obj, start, end);
 	}
 
+	private BencodeDigest[] digests = new BencodeDigest[0];
+	private int activeDigests;
+	
+	/**
+	 * Registers a hash to be computed over the encoded form of a subtree of each top-level object processed.
+	 * The bytes are hashed as they pass through, without buffering them or processing the subtree again.
+	 * Writers copy the encoded form of cached and lazily read objects regardless of the hashes registered, so these are hashed as copied.
+	 * @param algorithm Name of the hash algorithm, e.g. "SHA-1" or "SHA-256".
+	 * @param path Keys of the nested dictionaries leading to the subtree, none for the top-level object itself.
+	 * @return The digest holding the hash after each top-level object.
+	 * @throws NoSuchAlgorithmException If the algorithm is not available.
+	 * @throws IllegalStateException If this reader or writer cannot pass the bytes it processes to hashes.
+	 */
+	public BencodeDigest addDigest(String algorithm, String... path) throws NoSuchAlgorithmException {
+		if (!canDigest()) throw new IllegalStateException(getClass().getName() + " does not support digests.");
+		BencodeDigest d = new BencodeDigest(MessageDigest.getInstance(algorithm), path);
+		digests = Arrays.copyOf(digests, digests.length + 1);
+		digests[digests.length - 1] = d;
+		return d;
+	}
+	
+	/**
+	 * Stops computing a hash registered by {@link #addDigest(String, String...)}.
+	 * @param digest The digest to remove.
+	 */
+	public void removeDigest(BencodeDigest digest) {
+		ArrayList<BencodeDigest> rest = new ArrayList<>(Arrays.asList(digests));
+		if (rest.remove(digest)) digests = rest.toArray(new BencodeDigest[rest.size()]);
+	}
+	
+	/**
+	 * Determines whether any hashes are to be computed.
+	 * @return Whether digests have been registered by {@link #addDigest(String, String...)}.
+	 */
+	protected boolean hasDigests() {
+		return digests.length > 0;
+	}
+	
+	boolean isDigesting() {
+		return activeDigests > 0;
+	}
+	
+	/**
+	 * Discards the hashes of the previous top-level object.
+	 */
+	void clearDigests() {
+		for (BencodeDigest d : digests) d.clear();
+		activeDigests = 0;
+	}
+	
+	/**
+	 * Starts hashing for the digests whose path leads to the value about to be processed.
+	 * @param keys The keys of the enclosing dictionaries, {@code null} for lists.
+	 * @param depth The number of enclosing lists and dictionaries.
+	 */
+	void beginDigests(Object[] keys, int depth) {
+		boolean flushed = false;
+		for (BencodeDigest d : digests) {
+			if (d.depth() == depth && d.matches(keys)) {
+				if (!flushed) flushDigests();
+				flushed = true;
+				d.active = true;
+				activeDigests++;
+			}
+		}
+	}
+	
+	/**
+	 * Determines whether the path of a digest leads into the value about to be processed, rather than to the value itself.
+	 * @param keys The keys of the enclosing dictionaries, {@code null} for lists.
+	 * @param depth The number of enclosing lists and dictionaries.
+	 */
+	boolean digestsWithin(Object[] keys, int depth) {
+		for (BencodeDigest d : digests) {
+			if (d.depth() > depth && d.matches(keys, depth)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the digests whose path leads into the value about to be processed, see {@link #digestsWithin(Object[], int)}.
+	 */
+	List<BencodeDigest> getDigestsWithin(Object[] keys, int depth) {
+		List<BencodeDigest> within = new ArrayList<>();
+		for (BencodeDigest d : digests) {
+			if (d.depth() > depth && d.matches(keys, depth)) within.add(d);
+		}
+		return within;
+	}
+	
+	/**
+	 * Starts hashing for a single digest, whose value has been located by other means than its enclosing keys.
+	 * @param d The digest.
+	 */
+	void beginDigest(BencodeDigest d) {
+		flushDigests();
+		d.active = true;
+		activeDigests++;
+	}
+	
+	/**
+	 * Completes a single digest started by {@link #beginDigest(BencodeDigest)}.
+	 * @param d The digest.
+	 * @param obj The value.
+	 */
+	void endDigest(BencodeDigest d, BencodeObject obj) {
+		flushDigests();
+		d.complete(obj);
+		activeDigests--;
+	}
+	
+	/**
+	 * Completes the digests of a value which has been processed entirely.
+	 * @param obj The value.
+	 * @param depth The number of enclosing lists and dictionaries.
+	 */
+	void endDigests(BencodeObject obj, int depth) {
+		boolean flushed = false;
+		for (BencodeDigest d : digests) {
+			if (d.active && d.depth() == depth) {
+				if (!flushed) flushDigests();
+				flushed = true;
+				d.complete(obj);
+				activeDigests--;
+			}
+		}
+	}
+	
+	/**
+	 * Determines whether the bytes processed can be passed to hashes, see {@link #addDigest(String, String...)}.
+	 */
+	boolean canDigest() {
+		return true;
+	}
+	
+	/**
+	 * Passes bytes which have been processed but not hashed yet to the active digests, before the set of active digests changes.
+	 */
+	void flushDigests() {
+	}
+	
+	void digest(byte[] data, int offset, int length) {
+		for (BencodeDigest d : digests) {
+			if (d.active) d.update(data, offset, length);
+		}
+	}
+	
+	void digest(ByteBuffer data) {
+		int pos = data.position();
+		for (BencodeDigest d : digests) {
+			if (d.active) {
+				data.position(pos);
+				d.update(data);
+			}
+		}
+	}
+	
 	/**
 	 * Mark this IO instance as closed, preventing further read or write operations.
 	 * An underlying stream might be closed as well (see constructors).
@@ -0,0 +1,233 @@
+package h8c760d09c742.lib.bencode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Non-blocking deserialization of Bencode objects from input arriving in arbitrary parts,
+ * e.g. from a non-blocking {@link java.nio.channels.SocketChannel} or from datagrams.<br>
+ * The state of an incomplete object (nesting, partial numbers and strings) is kept between calls of {@link #feed(ByteBuffer)}.
+ * Typical use in a selector loop:
+ * <pre>
+ * channel.read(buf);
+ * buf.flip();
+ * for (BencodeObject o = reader.feed(buf); o != null; o = reader.feed(buf)) handle(o);
+ * buf.compact();
+ * </pre>
+ * Positions are counted across all input fed since creation. By default they are not recorded (see {@link #setTracking(Tracking)}).
+ */
+public class BencodeIncrementalReader extends BencodeIO {
+
+	private static final int TOKEN = 0, NUMBER = 1, STRING = 2;
+	private static final int STRING_CHUNK = 65536;
+	
+	private int state = TOKEN;
+	private long pos, tokenStart;
+	
+	private boolean numEnd, numNegative, numValid;
+	private long numValue;
+	private int numDigits;
+	
+	private byte[] strData;
+	private int strLen, strFill;
+	
+	private BencodeObject[] stack = new BencodeObject[8];
+	private String[] keys = new String[8];
+	private long[] starts = new long[8];
+	private int depth;
+	private int maxDepth = BencodeReader.DEFAULT_MAX_DEPTH;
+	
+	/**
+	 * Creates a new incremental reader.
+	 */
+	public BencodeIncrementalReader() {
+		setTracking(Tracking.NONE);
+	}
+	
+	@Override
+	public int getPosition() {
+		return checkedPosition(pos);
+	}
+	
+	@Override
+	public long getOffset() {
+		return pos;
+	}
+	
+	/**
+	 * Input arrives in parts which are not retained, so hashes of subtrees cannot be computed.
+	 */
+	@Override
+	boolean canDigest() {
+		return false;
+	}
+	
+	/**
+	 * Determines whether an object has been started but not completed yet.
+	 * @return Whether input of an incomplete object is pending.
+	 */
+	public boolean isPending() {
+		return state != TOKEN || depth > 0;
+	}
+	
+	/**
+	 * Gets the maximum nesting depth of lists and dictionaries accepted by this reader.
+	 * @return The maximum number of nested lists and dictionaries.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Limits the nesting depth of lists and dictionaries, input exceeding it is rejected with a {@link BencodeException}.
+	 * @param maxDepth The maximum number of nested lists and dictionaries, {@link BencodeReader#DEFAULT_MAX_DEPTH} by default.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) throw new IllegalArgumentException("Maximum depth must be positive.");
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * Discards the state of an incomplete object, e.g. of a truncated datagram.
+	 * The next byte fed is expected to start a new object.
+	 */
+	public void reset() {
+		state = TOKEN;
+		strData = null;
+		Arrays.fill(stack, 0, depth, null);
+		Arrays.fill(keys, 0, depth, null);
+		depth = 0;
+	}
+	
+	/**
+	 * Consumes input until a top-level object is completed or the input is exhausted.
+	 * @param in Buffer holding the next part of the input, its position is advanced past the bytes consumed.
+	 * @return The completed object (including its sub-structure) or {@code null} if more input is needed.
+	 * @throws BencodeException In case of a parsing error, the state is reset and the input is positioned after the offending byte.
+	 * @throws IOException If the reader has already been closed.
+	 */
+	public BencodeObject feed(ByteBuffer in) throws IOException {
+		if (closed) throw new IOException("Reader is closed");
+		try {
+			while (in.hasRemaining()) {
+				BencodeObject o;
+				if (state == TOKEN) o = startToken(in.get());
+				else if (state == NUMBER) o = continueNumber(in);
+				else o = continueString(in);
+				if (o != null) return o;
+			}
+		} catch (IOException e) {
+			long start = depth > 0 ? starts[0] : tokenStart;
+			reset();
+			throw new BencodeException("Parsing error @" + pos + " in object starting @" + start, e);
+		}
+		return null;
+	}
+	
+	private BencodeObject startToken(byte chr) throws IOException {
+		tokenStart = pos++;
+		if (chr == 'e' && depth > 0) {
+			if (keys[depth - 1] != null) throw new IOException("Missing value in dictionary");
+			BencodeObject c = stack[--depth];
+			stack[depth] = null;
+			return complete(c, starts[depth]);
+		}
+		boolean digit = chr >= 0x30 && chr < 0x3A;
+		if (!digit && depth > 0 && stack[depth - 1].isDictionary() && keys[depth - 1] == null) {
+			throw new IOException("Illegal dictionary key");
+		}
+		if (chr == 'i') {
+			beginNumber(true);
+		} else if (chr == 'l' || chr == 'd') {
+			if (depth >= maxDepth) throw new IOException("Maximum nesting depth exceeded");
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, depth * 2);
+				keys = Arrays.copyOf(keys, depth * 2);
+				starts = Arrays.copyOf(starts, depth * 2);
+			}
+			stack[depth] = chr == 'l' ? new BencodeList() : new BencodeDictionary();
+			starts[depth++] = tokenStart;
+		} else if (digit) {
+			beginNumber(false);
+			digit(chr);
+		} else {
+			throw new IOException(String.format("Unknown start of object 0x%02X", chr & 0xFF));
+		}
+		return null;
+	}
+	
+	private void beginNumber(boolean expectEnd) {
+		state = NUMBER;
+		numEnd = expectEnd;
+		numNegative = false;
+		numValid = true;
+		numValue = 0;
+		numDigits = 0;
+	}
+	
+	private void digit(byte chr) {
+		numValue = BencodeReader.appendDigit(numValue, chr - 0x30, numNegative);
+		numDigits++;
+	}
+	
+	private BencodeObject continueNumber(ByteBuffer in) throws IOException {
+		while (in.hasRemaining()) {
+			byte chr = in.get();
+			pos++;
+			if (chr >= 0x30 && chr < 0x3A) {
+				digit(chr);
+			} else if (chr == 0x2D) {
+				if (numDigits > 0 || numNegative) numValid = false;
+				numNegative = true;
+			} else if (chr == (numEnd ? 'e' : ':')) {
+				long value = BencodeReader.checkNumber(numValue, numDigits, numNegative, numValid);
+				state = TOKEN;
+				if (numEnd) return complete(new BencodeInteger(value), tokenStart);
+				if (value > Integer.MAX_VALUE) throw new IOException("Maximum string size exceeded");
+				strLen = (int)value;
+				strFill = 0;
+				// grow the buffer as data arrives rather than trusting the announced length
+				strData = new byte[Math.min(strLen, STRING_CHUNK)];
+				if (strLen == 0) return completeString();
+				state = STRING;
+				return null;
+			} else {
+				throw BencodeReader.unexpectedCharacter(chr, numEnd);
+			}
+		}
+		return null;
+	}
+	
+	private BencodeObject continueString(ByteBuffer in) throws IOException {
+		if (strFill == strData.length) strData = Arrays.copyOf(strData, (int)Math.min(strLen, strData.length * 2L));
+		int n = Math.min(in.remaining(), strData.length - strFill);
+		in.get(strData, strFill, n);
+		strFill += n;
+		pos += n;
+		return strFill == strLen ? completeString() : null;
+	}
+	
+	private BencodeObject completeString() throws IOException {
+		BencodeString str = new BencodeString(strData);
+		strData = null;
+		state = TOKEN;
+		return complete(str, tokenStart);
+	}
+	
+	private BencodeObject complete(BencodeObject o, long start) {
+		track(o, start, pos, depth == 0);
+		if (depth == 0) return o;
+		BencodeObject parent = stack[depth - 1];
+		if (parent.isList()) {
+			((BencodeList)parent).add(o);
+		} else if (keys[depth - 1] == null) {
+			keys[depth - 1] = o.getString();
+		} else {
+			((BencodeDictionary)parent).put(keys[depth - 1], o);
+			keys[depth - 1] = null;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,127 @@
+package h8c760d09c742.lib.bencode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Raw byte-string key of a dictionary.
+ * Keys are ordered by comparing their bytes unsigned and lexicographically, as required for Bencoded dictionaries.
+ * Their bytes are kept as read, so keys which are not valid UTF-8 (e.g. binary hashes) are preserved exactly.
+ * @see BencodeRawDictionary
+ */
+public final class BencodeKey implements Comparable<BencodeKey> {
+
+	private final byte[] key;
+	private int hash;
+	private String str;
+
+	BencodeKey(byte[] key, String str) {
+		this.key = key;
+		this.str = str;
+	}
+
+	/**
+	 * Creates a key from raw bytes.
+	 * @param key The bytes of the key, which are copied.
+	 */
+	public BencodeKey(byte[] key) {
+		this(key.clone(), null);
+	}
+
+	/**
+	 * Creates a key from a Unicode string.
+	 * @param key The string to be encoded as UTF-8.
+	 * @return The key.
+	 */
+	public static BencodeKey of(String key) {
+		return new BencodeKey(key.getBytes(StandardCharsets.UTF_8), key);
+	}
+
+	/**
+	 * Creates a key from the content of a string-object, without copying it if the object is backed by an array of its own.
+	 */
+	static BencodeKey of(BencodeString str) {
+		return new BencodeKey(str.getData(), null);
+	}
+
+	/**
+	 * Determines the length of the UTF-8 encoding of a string, unpaired surrogates are replaced by '?' as by {@link String#getBytes}.
+	 */
+	static int utf8Length(String str) {
+		int length = str.length(), bytes = length;
+		for (int n = 0; n < length; n++) {
+			char c = str.charAt(n);
+			if (c < 0x80) continue;
+			if (c < 0x800) {
+				bytes += 1;
+			} else if (Character.isHighSurrogate(c) && n + 1 < length && Character.isLowSurrogate(str.charAt(n + 1))) {
+				bytes += 2;
+				n++;
+			} else if (!Character.isSurrogate(c)) {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the bytes of this key, which must not be modified.
+	 */
+	byte[] bytes() {
+		return key;
+	}
+
+	/**
+	 * Returns the bytes of this key.
+	 * @return A copy of the key.
+	 */
+	public byte[] getData() {
+		return key.clone();
+	}
+
+	/**
+	 * Gets the length of this key.
+	 * @return The number of bytes.
+	 */
+	public int getLength() {
+		return key.length;
+	}
+
+	/**
+	 * Interprets the key as UTF-8 encoded text.
+	 * @return A Unicode string.
+	 */
+	public String getString() {
+		String s = str;
+		if (s == null) str = s = new String(key, StandardCharsets.UTF_8);
+		return s;
+	}
+
+	@Override
+	public int compareTo(BencodeKey other) {
+		byte[] a = key, b = other.key;
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			if (a[i] != b[i]) return (a[i] & 0xFF) - (b[i] & 0xFF);
+		}
+		return a.length - b.length;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof BencodeKey && Arrays.equals(key, ((BencodeKey)obj).key);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) hash = h = Arrays.hashCode(key);
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return getString();
+	}
+
+}
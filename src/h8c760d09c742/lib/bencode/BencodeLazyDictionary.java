@@ -0,0 +1,133 @@
+package h8c760d09c742.lib.bencode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * Dictionary decoding its entries from the encoded form on demand.
+ * Keys are located on first access, values are decoded when they are looked up.
+ * The map is only built if the dictionary is iterated or modified.
+ * @see BencodeScanner#readLazy()
+ */
+final class BencodeLazyDictionary extends BencodeDictionary {
+
+	private final BencodeScanner source;
+	private final int start, end;
+	private int[] index;
+	private BencodeObject[] values;
+	private boolean sorted, materialized;
+	private final long created = now();
+	
+	BencodeLazyDictionary(BencodeScanner source, int start, int end) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+	}
+	
+	private void index() {
+		if (index != null) return;
+		int[] idx = source.index(start, end, true);
+		boolean asc = true;
+		for (int i = 4; i < idx.length && asc; i += 4) asc = source.compare(idx[i - 4], idx[i - 3], idx[i], idx[i + 1]) < 0;
+		values = new BencodeObject[idx.length / 4];
+		sorted = asc;
+		index = idx;
+	}
+	
+	private BencodeObject value(int n) {
+		BencodeObject v = values[n];
+		if (v == null) {
+			values[n] = v = source.decode(index[n * 4 + 2], index[n * 4 + 3]);
+			adopt(v);
+		}
+		return v;
+	}
+	
+	private int find(String key) {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		if (sorted) {
+			int lo = 0, hi = values.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int c = source.compare(index[mid * 4], index[mid * 4 + 1], k);
+				if (c < 0) lo = mid + 1;
+				else if (c > 0) hi = mid - 1;
+				else return mid;
+			}
+		} else {
+			// the last occurrence of a key takes precedence, as in an eagerly read dictionary
+			for (int n = values.length - 1; n >= 0; n--) {
+				if (source.compare(index[n * 4], index[n * 4 + 1], k) == 0) return n;
+			}
+		}
+		return -1;
+	}
+	
+	private void materialize() {
+		if (materialized) return;
+		index();
+		TreeMap<String, BencodeObject> dict = super.getDictionary();
+		for (int n = 0; n < values.length; n++) dict.put(source.decodeString(index[n * 4], index[n * 4 + 1]), value(n));
+		materialized = true;
+	}
+	
+	@Override
+	protected TreeMap<String, BencodeObject> getDictionary() {
+		materialize();
+		return super.getDictionary();
+	}
+	
+	@Override
+	public BencodeObject get(String key) {
+		if (materialized) return super.get(key);
+		index();
+		int n = find(key);
+		return n < 0 ? null : value(n);
+	}
+	
+	@Override
+	public boolean contains(String key) {
+		return get(key) != null;
+	}
+	
+	@Override
+	public int getCount() {
+		if (materialized) return super.getCount();
+		index();
+		if (sorted) return values.length;
+		return getDictionary().size();
+	}
+	
+	@Override
+	public BencodeDictionary put(String key, BencodeObject obj) {
+		materialize();
+		return super.put(key, obj);
+	}
+	
+	@Override
+	public BencodeDictionary put(String key, String value) {
+		materialize();
+		return super.put(key, value);
+	}
+	
+	@Override
+	public BencodeDictionary put(String key, long value) {
+		materialize();
+		return super.put(key, value);
+	}
+	
+	@Override
+	ByteBuffer encoded() {
+		if (!unchangedSince(created)) return super.encoded();
+		return source.view(start, end);
+	}
+	
+	@Override
+	long knownLength() {
+		if (!unchangedSince(created)) return super.knownLength();
+		return end - start;
+	}
+
+}
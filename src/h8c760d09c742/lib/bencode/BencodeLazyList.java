@@ -0,0 +1,136 @@
+package h8c760d09c742.lib.bencode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * List decoding its elements from the encoded form on demand.
+ * Elements are located on first access and decoded when they are retrieved or reached by iteration.
+ * The backing list is only built if the list is modified.
+ * @see BencodeScanner#readLazy()
+ */
+final class BencodeLazyList extends BencodeList {
+
+	private final BencodeScanner source;
+	private final int start, end;
+	private int[] index;
+	private BencodeObject[] elements;
+	private boolean materialized;
+	private final long created = now();
+	
+	BencodeLazyList(BencodeScanner source, int start, int end) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+	}
+	
+	private void index() {
+		if (index != null) return;
+		int[] idx = source.index(start, end, false);
+		elements = new BencodeObject[idx.length / 2];
+		index = idx;
+	}
+	
+	private BencodeObject element(int n) {
+		BencodeObject e = elements[n];
+		if (e == null) {
+			elements[n] = e = source.decode(index[n * 2], index[n * 2 + 1]);
+			adopt(e);
+		}
+		return e;
+	}
+	
+	private void materialize() {
+		if (materialized) return;
+		index();
+		ArrayList<BencodeObject> list = super.getList();
+		list.ensureCapacity(elements.length);
+		for (int n = 0; n < elements.length; n++) list.add(element(n));
+		materialized = true;
+	}
+	
+	@Override
+	protected ArrayList<BencodeObject> getList() {
+		materialize();
+		return super.getList();
+	}
+	
+	@Override
+	public BencodeObject get(int n) {
+		if (materialized) return super.get(n);
+		index();
+		if (n < 0 || n >= elements.length) throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + elements.length);
+		return element(n);
+	}
+	
+	@Override
+	public int getCount() {
+		if (materialized) return super.getCount();
+		index();
+		return elements.length;
+	}
+	
+	@Override
+	public Iterator<BencodeObject> iterator() {
+		if (materialized) return super.iterator();
+		index();
+		return new Iterator<BencodeObject>() {
+			private int next = 0, removed = 0;
+			private boolean removable;
+			
+			@Override
+			public boolean hasNext() {
+				return next < elements.length;
+			}
+			
+			@Override
+			public BencodeObject next() {
+				if (next >= elements.length) throw new NoSuchElementException();
+				removable = true;
+				return element(next++);
+			}
+			
+			@Override
+			public void remove() {
+				if (!removable) throw new IllegalStateException();
+				removable = false;
+				// the decoded elements keep their positions, the backing list shrinks with every removal
+				materialize();
+				modified(BencodeLazyList.super.getList().remove(next - 1 - removed++), null);
+			}
+		};
+	}
+	
+	@Override
+	public BencodeList add(BencodeObject obj) {
+		materialize();
+		return super.add(obj);
+	}
+	
+	@Override
+	public BencodeList add(String value) {
+		materialize();
+		return super.add(value);
+	}
+	
+	@Override
+	public BencodeList add(long value) {
+		materialize();
+		return super.add(value);
+	}
+	
+	@Override
+	ByteBuffer encoded() {
+		if (!unchangedSince(created)) return super.encoded();
+		return source.view(start, end);
+	}
+	
+	@Override
+	long knownLength() {
+		if (!unchangedSince(created)) return super.knownLength();
+		return end - start;
+	}
+
+}
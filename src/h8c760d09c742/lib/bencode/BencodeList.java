@@ -1,11 +1,12 @@
 package h8c760d09c742.lib.bencode;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * List of values, dictionaries or other lists in Bencoding.
  */
-public class BencodeList extends BencodeObject {
+public class BencodeList extends BencodeContainer {
 
 	private final ArrayList<BencodeObject> list;
 	
@@ -31,6 +32,15 @@ public class BencodeList extends BencodeObject {
 		visitor.visit(this);
 	}
 	
+	/**
+	 * Iterate over the elements of the list.
+	 * Elements removed through the iterator are recorded as a modification of the list.
+	 */
+	@Override
+	public Iterator<BencodeObject> iterator() {
+		return elements(getList().iterator());
+	}
+	
 	/**
 	 * Adds an object at the end of the list.
 	 * @param obj A Bencode object of any kind, null-values are ignored.
@@ -38,6 +48,7 @@ public class BencodeList extends BencodeObject {
 	 */
 	public BencodeList add(BencodeObject obj) {
 		if (obj != null) list.add(obj);
+		modified(null, obj);
 		return this;
 	}
 	
@@ -48,6 +59,7 @@ public class BencodeList extends BencodeObject {
 	 */
 	public BencodeList add(String value) {
 		list.add(new BencodeString(value));
+		modified();
 		return this;
 	}
 	
@@ -58,6 +70,7 @@ public class BencodeList extends BencodeObject {
 	 */
 	public BencodeList add(long value) {
 		list.add(new BencodeInteger(value));
+		modified();
 		return this;
 	}
 
@@ -1,11 +1,15 @@
 package h8c760d09c742.lib.bencode;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Abstraction of a Bencode entity.
@@ -17,10 +21,182 @@ import java.util.TreeMap;
  */
 public abstract class BencodeObject implements Iterable<BencodeObject> {
 
+	/**
+	 * Clock for detecting modifications, advanced whenever an encoding is cached.
+	 */
+	private static final AtomicLong CLOCK = new AtomicLong();
+	
+	/**
+	 * Encoding of an object along with the time it was created, replaced as a whole so that concurrent writers never see a mismatch.
+	 */
+	private static final class Cache {
+		final byte[] data;
+		final long time;
+		
+		Cache(byte[] data, long time) {
+			this.data = data;
+			this.time = time;
+		}
+	}
+	
+	// cache enabled but not filled yet
+	private static final Cache EMPTY = new Cache(null, 0);
+	private static final AtomicReferenceFieldUpdater<BencodeObject, Cache> CACHE =
+		AtomicReferenceFieldUpdater.newUpdater(BencodeObject.class, Cache.class, "cache");
+	
+	// set while caching is enabled
+	private volatile Cache cache;
+	
 	BencodeObject() { }
 	
 	abstract void accept(BencodeVisitor visitor) throws BencodeException;
 	
+	/**
+	 * Gets the current time for detecting modifications, objects modified afterwards report a later time.
+	 */
+	static long now() {
+		return CLOCK.get();
+	}
+	
+	/**
+	 * Records a modification of a list or dictionary, strings and integers are immutable.
+	 */
+	void modified() { }
+	
+	/**
+	 * Records a modification of a list or dictionary which replaced a member by another, either of which may be {@code null}.
+	 */
+	void modified(BencodeObject removed, BencodeObject added) { }
+	
+	/**
+	 * Determines whether neither this object nor any object it contains has been modified since the specified time.
+	 * Strings and integers are immutable.
+	 */
+	boolean unchangedSince(long time) {
+		return true;
+	}
+	
+	/**
+	 * Provides the encoded form of this object if it is known to be up to date, allowing writers to copy it directly.
+	 * Objects caching their encoding (see {@link #setEncodingCached(boolean)}) encode themselves again if they have been modified.
+	 * @return A read-only buffer or {@code null}.
+	 */
+	ByteBuffer encoded() {
+		Cache c = cache;
+		if (c == null) return null;
+		if (c.data == null || !unchangedSince(c.time)) {
+			Cache fresh;
+			try {
+				long time = CLOCK.incrementAndGet();
+				fresh = new Cache(BencodeWriter.encode(this), time);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			// not re-enabled if caching has been disabled meanwhile
+			CACHE.compareAndSet(this, c, fresh);
+			c = fresh;
+		}
+		return ByteBuffer.wrap(c.data).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Gets the length of the encoded form of this object if it is known without examining its elements.
+	 * @return The length or -1.
+	 */
+	long knownLength() {
+		Cache c = cache;
+		return c != null && c.data != null && unchangedSince(c.time) ? c.data.length : -1;
+	}
+	
+	/**
+	 * Determines whether the encoded form of this object is cached.
+	 * @return Whether the encoding is cached.
+	 */
+	public boolean isEncodingCached() {
+		return cache != null;
+	}
+	
+	/**
+	 * Enables or disables caching the encoded form of this object, e.g. for a document which is sent repeatedly.
+	 * The encoding is created when it is needed first and reused by writers
+	 * until this object or any object it contains is modified through the functions or views of these objects.
+	 * Strings and integers are immutable, the content of arrays passed to or obtained from string-objects must not be modified.
+	 * Any number of threads may write the object at the same time, as long as it is not modified meanwhile.
+	 * @param cached Whether to cache the encoding.
+	 * @return This Bencode object.
+	 */
+	public BencodeObject setEncodingCached(boolean cached) {
+		if (!cached) cache = null;
+		else CACHE.compareAndSet(this, null, EMPTY);
+		return this;
+	}
+	
+	/**
+	 * Encodes this object including its sub-structure.
+	 * The encoding is taken from the cache or from the input of a lazy reader if it is up to date.
+	 * @return A read-only buffer holding the encoded form.
+	 */
+	public ByteBuffer getEncoded() {
+		ByteBuffer enc = encoded();
+		if (enc != null) return enc;
+		try {
+			return ByteBuffer.wrap(BencodeWriter.encode(this)).asReadOnlyBuffer();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Computes the length of the encoded form of this object including its sub-structure, without encoding it.
+	 * @return The number of bytes a writer will produce for this object.
+	 */
+	public long encodedLength() {
+		long length = 0;
+		ArrayList<Iterator<?>> stack = new ArrayList<>();
+		BencodeObject o = this;
+		for (;;) {
+			if (o != null) {
+				long known = o.knownLength();
+				if (known >= 0) {
+					length += known;
+				} else if (o.isInteger()) {
+					length += 2 + decimalLength(o.getValue());
+				} else if (o.isString()) {
+					length += 1 + decimalLength(o.getLength()) + o.getLength();
+				} else {
+					length += 2;
+					stack.add(o.isList() ? o.iterator() : ((BencodeDictionary)o).entryIterator());
+				}
+			}
+			if (stack.isEmpty()) return length;
+			Iterator<?> it = stack.get(stack.size() - 1);
+			if (!it.hasNext()) {
+				stack.remove(stack.size() - 1);
+				o = null;
+				continue;
+			}
+			Object next = it.next();
+			if (next instanceof Map.Entry) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>)next;
+				Object key = e.getKey();
+				int k = key instanceof BencodeKey ? ((BencodeKey)key).getLength() : BencodeKey.utf8Length((String)key);
+				length += 1 + decimalLength(k) + k;
+				o = (BencodeObject)e.getValue();
+			} else {
+				o = (BencodeObject)next;
+			}
+		}
+	}
+	
+	/**
+	 * Determines the number of characters of a number in decimal, including the minus sign.
+	 */
+	static int decimalLength(long value) {
+		int digits = value < 0 ? 2 : 1;
+		for (long v = value < 0 ? value : -value; v <= -10; v /= 10) digits++;
+		return digits;
+	}
+	
 	/**
 	 * Determines if this represents an integer value.
 	 * @return Whether this is a Bencode integer-object.
@@ -70,6 +246,22 @@ public abstract class BencodeObject implements Iterable<BencodeObject> {
 		throw new IllegalStateException("Not a string object.");
 	}
 	
+	/**
+	 * Returns the length of a string-object without copying its content.
+	 * @return The number of bytes in the string.
+	 */
+	public int getLength() {
+		throw new IllegalStateException("Not a string object.");
+	}
+	
+	/**
+	 * Returns a read-only view of the bytes of a string-object without copying its content.
+	 * @return A buffer positioned at the first byte of the string and limited to its length.
+	 */
+	public ByteBuffer getBuffer() {
+		throw new IllegalStateException("Not a string object.");
+	}
+	
 	/**
 	 * Returns the Unicode interpretation of a string-object.
 	 * @return A Unicode string.
@@ -107,8 +299,7 @@ public abstract class BencodeObject implements Iterable<BencodeObject> {
 	 * @return This Bencode object.
 	 */
 	public BencodeObject set(int index, BencodeObject value) {
-		if (value != null) getList().set(index, value);
-		else getList().remove(index);
+		modified(value != null ? getList().set(index, value) : getList().remove(index), value);
 		return this;
 	}
 	
@@ -121,6 +312,7 @@ public abstract class BencodeObject implements Iterable<BencodeObject> {
 	 */
 	public BencodeObject insert(int index, BencodeObject value) {
 		if (value != null) getList().add(index, value);
+		modified(null, value);
 		return this;
 	}
 	
@@ -132,6 +324,7 @@ public abstract class BencodeObject implements Iterable<BencodeObject> {
 	 */
 	public BencodeObject append(BencodeObject value) {
 		if (value != null) getList().add(value);
+		modified(null, value);
 		return this;
 	}
 	
@@ -153,8 +346,7 @@ public abstract class BencodeObject implements Iterable<BencodeObject> {
 	 * @return This Bencode object.
 	 */
 	public BencodeObject set(String key, BencodeObject value) {
-		if (value != null) getDictionary().put(key, value);
-		else getDictionary().remove(key);
+		modified(value != null ? getDictionary().put(key, value) : getDictionary().remove(key), value);
 		return this;
 	}
 	
@@ -0,0 +1,254 @@
+package h8c760d09c742.lib.bencode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import h8c760d09c742.lib.bencode.BencodeEventReader.Event;
+
+/**
+ * Selective deserialization of the parts of documents reached by a set of key paths, e.g. {@code "info/name"},
+ * where {@link #WILDCARD} stands for any element of a list.
+ * Documents are read through a {@link BencodeEventReader}, anything not selected is skipped:
+ * strings are passed over by their length without reading their content (e.g. by {@link java.io.InputStream#skip(long)} for streams)
+ * and lists and dictionaries off the paths are not created.<br>
+ * The result of a document is a tree holding the selected values along with the lists and dictionaries leading to them.
+ * Values at the end of a path are read completely, including their sub-structure.
+ * Values whose type does not fit the path are omitted, i.e. anything but a dictionary where a key follows
+ * and anything but a list or dictionary where a wildcard follows.<br>
+ * Positions of the objects created are recorded by the underlying reader according to its tracking policy,
+ * lists and dictionaries are recorded with the range of the complete input they were taken from.
+ * A projection is immutable and may be shared by any number of threads.
+ */
+public final class BencodeProjection {
+
+	/**
+	 * Path element matching every element of a list, as well as every value of a dictionary.
+	 */
+	public static final String WILDCARD = "*";
+
+	/**
+	 * Position in the compiled paths.
+	 */
+	private static final class Node {
+		final byte[] key;
+		final List<Node> children = new ArrayList<>();
+		Node any;
+		boolean selected;
+
+		Node(byte[] key) {
+			this.key = key;
+		}
+	}
+
+	private final Node root = new Node(null);
+	private final String[][] paths;
+
+	private BencodeProjection(String[][] paths) {
+		this.paths = new String[paths.length][];
+		for (int p = 0; p < paths.length; p++) {
+			this.paths[p] = paths[p].clone();
+			Node node = root;
+			for (String k : this.paths[p]) {
+				if (k == null) throw new IllegalArgumentException("Path elements must not be null.");
+				Node next = null;
+				if (k.equals(WILDCARD)) {
+					if (node.any == null) node.any = new Node(null);
+					next = node.any;
+				} else {
+					byte[] key = k.getBytes(StandardCharsets.UTF_8);
+					for (Node c : node.children) {
+						if (Arrays.equals(c.key, key)) next = c;
+					}
+					if (next == null) node.children.add(next = new Node(key));
+				}
+				node = next;
+			}
+			node.selected = true;
+		}
+		expand(root);
+	}
+
+	/**
+	 * Merges the paths following a wildcard into the sibling keys, since a key matched by the projection is matched by the wildcard as well.
+	 */
+	private static void expand(Node node) {
+		if (node.any != null) {
+			for (Node c : node.children) merge(c, node.any);
+			expand(node.any);
+		}
+		for (Node c : node.children) expand(c);
+	}
+
+	/**
+	 * Adds copies of the paths from a node to another node.
+	 */
+	private static void merge(Node target, Node source) {
+		target.selected |= source.selected;
+		for (Node s : source.children) {
+			Node t = null;
+			for (Node c : target.children) {
+				if (Arrays.equals(c.key, s.key)) t = c;
+			}
+			if (t == null) target.children.add(t = new Node(s.key));
+			merge(t, s);
+		}
+		if (source.any != null) {
+			if (target.any == null) target.any = new Node(null);
+			merge(target.any, source.any);
+		}
+	}
+
+	/**
+	 * Creates a projection from paths given as sequences of dictionary keys and {@link #WILDCARD}s.
+	 * @param paths The paths to select, an empty path selects the whole document.
+	 * @return The compiled projection.
+	 */
+	public static BencodeProjection of(String[]... paths) {
+		return new BencodeProjection(paths);
+	}
+
+	/**
+	 * Creates a projection from paths of dictionary keys and {@link #WILDCARD}s separated by '/', e.g. {@code "info/name"}.
+	 * @param paths The paths to select, an empty string selects the whole document.
+	 * @return The compiled projection.
+	 * @see #of(String[]...)
+	 */
+	public static BencodeProjection compile(String... paths) {
+		String[][] split = new String[paths.length][];
+		for (int p = 0; p < paths.length; p++) split[p] = paths[p].isEmpty() ? new String[0] : paths[p].split("/", -1);
+		return new BencodeProjection(split);
+	}
+
+	/**
+	 * Gets the paths selected by this projection.
+	 * @return The keys and wildcards of each path.
+	 */
+	public String[][] getPaths() {
+		String[][] copy = new String[paths.length][];
+		for (int p = 0; p < paths.length; p++) copy[p] = paths[p].clone();
+		return copy;
+	}
+
+	/**
+	 * Reads the selected parts of the next document from a reader.
+	 * @param reader The reader providing the input.
+	 * @return The projection of the document or {@code null} if the end of input has been reached.
+	 * @throws BencodeException In case of a parsing error or read failure.
+	 * @see #read(BencodeEventReader)
+	 */
+	public BencodeObject read(BencodeReader reader) throws IOException {
+		return read(new BencodeEventReader(reader));
+	}
+
+	/**
+	 * Reads the selected parts of the next document from an event reader, which must be positioned between top-level objects.
+	 * Top-level objects which are neither lists nor dictionaries are returned completely.
+	 * @param events The event reader providing the input.
+	 * @return The projection of the document or {@code null} if the end of input has been reached.
+	 * @throws BencodeException In case of a parsing error or read failure.
+	 */
+	public BencodeObject read(BencodeEventReader events) throws IOException {
+		Event ev = events.next();
+		if (ev == null) return null;
+		if (root.selected || ev != Event.START_DICT && ev != Event.START_LIST) return readValue(events, ev, true);
+		return project(events, root, ev, true);
+	}
+
+	/**
+	 * Reads the selected parts of the value starting with the current token.
+	 * @return The projected value or {@code null} if its type does not fit the path.
+	 */
+	private BencodeObject project(BencodeEventReader events, Node node, Event ev, boolean topLevel) throws IOException {
+		if (node.selected) return readValue(events, ev, topLevel);
+		if (ev != Event.START_DICT && (ev != Event.START_LIST || node.any == null)) {
+			events.skipValue();
+			return null;
+		}
+		BencodeReader source = events.source();
+		long start = events.getTokenOffset();
+		boolean dict = ev == Event.START_DICT, raw = source.isRawKeys();
+		BencodeObject obj = !dict ? new BencodeList() : raw ? new BencodeRawDictionary() : new BencodeDictionary();
+		while ((ev = events.next()) != Event.END) {
+			Node child = node.any;
+			Object key = null;
+			if (dict) {
+				for (Node c : node.children) {
+					if (events.dataEquals(c.key)) {
+						child = c;
+						break;
+					}
+				}
+				if (child == null) {
+					events.skipValue();
+					continue;
+				}
+				key = raw ? new BencodeKey(events.getData()) : events.getString();
+				ev = events.next();
+			} else if (child == null) {
+				events.skipValue();
+				continue;
+			}
+			BencodeObject value = project(events, child, ev, false);
+			if (value == null) continue;
+			if (!dict) obj.append(value);
+			else if (raw) ((BencodeRawDictionary)obj).put((BencodeKey)key, value);
+			else obj.set((String)key, value);
+		}
+		source.track(obj, start, events.getOffset(), topLevel);
+		return obj;
+	}
+
+	/**
+	 * Reads the value starting with the current token completely, using an explicit stack rather than recursion.
+	 */
+	static BencodeObject readValue(BencodeEventReader events, Event ev, boolean topLevel) throws IOException {
+		BencodeReader source = events.source();
+		boolean raw = source.isRawKeys();
+		BencodeObject[] frames = new BencodeObject[8];
+		long[] starts = new long[8];
+		Object[] keys = new Object[8];
+		int depth = 0;
+		for (;; ev = events.next()) {
+			BencodeObject o;
+			long start = events.getTokenOffset();
+			switch (ev) {
+			case START_DICT:
+			case START_LIST:
+				if (depth == frames.length) {
+					frames = Arrays.copyOf(frames, depth * 2);
+					starts = Arrays.copyOf(starts, depth * 2);
+					keys = Arrays.copyOf(keys, depth * 2);
+				}
+				frames[depth] = ev == Event.START_LIST ? new BencodeList() : raw ? new BencodeRawDictionary() : new BencodeDictionary();
+				starts[depth++] = start;
+				continue;
+			case KEY:
+				keys[depth - 1] = raw ? new BencodeKey(events.getData()) : events.getString();
+				continue;
+			case INTEGER:
+				o = new BencodeInteger(events.longValue());
+				break;
+			case STRING:
+				o = new BencodeString(events.getData());
+				break;
+			default:
+				o = frames[--depth];
+				frames[depth] = null;
+				start = starts[depth];
+			}
+			source.track(o, start, events.getOffset(), topLevel && depth == 0);
+			if (depth == 0) return o;
+
+			BencodeObject parent = frames[depth - 1];
+			Object key = keys[depth - 1];
+			if (parent.isList()) parent.append(o);
+			else if (raw) ((BencodeRawDictionary)parent).put((BencodeKey)key, o);
+			else parent.set((String)key, o);
+			keys[depth - 1] = null;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package h8c760d09c742.lib.bencode;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Dictionary keyed by raw byte-strings in Bencoding.
+ * Keys are kept in their encoded form and ordered by their bytes,
+ * so binary keys (e.g. info-hashes in scrape responses) are preserved and written exactly as read.<br>
+ * The functions taking or returning {@link String} keys work on top of the raw keys, encoding or decoding them as UTF-8.
+ * @see BencodeReader#setRawKeys(boolean)
+ */
+public class BencodeRawDictionary extends BencodeDictionary {
+
+	private final TreeMap<BencodeKey, BencodeObject> raw;
+
+	/**
+	 * Create an empty Bencode dictionary with raw keys.
+	 */
+	public BencodeRawDictionary() {
+		super(null);
+		this.raw = new TreeMap<>();
+	}
+
+	/**
+	 * Creates a copy of the content with decoded keys.
+	 * Changes to the returned map are not reflected by this dictionary.
+	 */
+	@Override
+	protected TreeMap<String, BencodeObject> getDictionary() {
+		TreeMap<String, BencodeObject> dict = new TreeMap<>(KEY_ORDER);
+		for (Map.Entry<BencodeKey, BencodeObject> e : raw.entrySet()) dict.put(e.getKey().getString(), e.getValue());
+		return dict;
+	}
+
+	@Override
+	Iterator<? extends Map.Entry<?, BencodeObject>> entryIterator() {
+		return raw.entrySet().iterator();
+	}
+
+	/**
+	 * Returns the value for a raw key.
+	 * @param key The key to which the object is mapped.
+	 * @return The corresponding Bencode object or {@code null}.
+	 */
+	public BencodeObject get(BencodeKey key) {
+		return raw.get(key);
+	}
+
+	/**
+	 * Checks if a raw key exists.
+	 * @param key The key to look up.
+	 * @return Whether the key exists.
+	 */
+	public boolean contains(BencodeKey key) {
+		return raw.containsKey(key);
+	}
+
+	/**
+	 * Puts an object in the dictionary.
+	 * @param key The key under which to store the value.
+	 * @param obj Bencode object of any kind, {@code null} removes the key.
+	 * @return This dictionary object.
+	 */
+	public BencodeRawDictionary put(BencodeKey key, BencodeObject obj) {
+		modified(obj != null ? raw.put(key, obj) : raw.remove(key), obj);
+		return this;
+	}
+
+	/**
+	 * Gets the raw keys of this dictionary.
+	 * @return The set of keys in their byte order, backed by this dictionary.
+	 */
+	public Set<BencodeKey> getRawKeys() {
+		return view(raw, Map.Entry::getKey, true);
+	}
+
+	/**
+	 * Gets the entries of this dictionary with their raw keys.
+	 * @return The set of entries in the order of their keys, backed by this dictionary.
+	 */
+	public Set<Map.Entry<BencodeKey, BencodeObject>> getRawEntries() {
+		return view(raw, e -> entry(e.getKey(), e), false);
+	}
+
+	@Override
+	public BencodeObject get(String key) {
+		return raw.get(BencodeKey.of(key));
+	}
+
+	@Override
+	public BencodeObject set(String key, BencodeObject value) {
+		return put(BencodeKey.of(key), value);
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return raw.containsKey(BencodeKey.of(key));
+	}
+
+	@Override
+	public int getCount() {
+		return raw.size();
+	}
+
+	/**
+	 * Gets the keys of this dictionary decoded as UTF-8.
+	 * Binary keys are decoded lossily, so different keys may appear equal.
+	 * @return The set of keys in their byte order, backed by this dictionary.
+	 */
+	@Override
+	public Set<String> getKeys() {
+		return view(raw, e -> e.getKey().getString(), false);
+	}
+
+	/**
+	 * Gets the entries of this dictionary with their keys decoded as UTF-8.
+	 * @return The set of entries in the byte order of their keys, backed by this dictionary.
+	 * @see #getKeys()
+	 */
+	@Override
+	public Set<Map.Entry<String, BencodeObject>> getEntries() {
+		return view(raw, e -> entry(e.getKey().getString(), e), false);
+	}
+
+	@Override
+	public BencodeDictionary put(String key, BencodeObject obj) {
+		return put(BencodeKey.of(key), obj);
+	}
+
+	@Override
+	public BencodeDictionary put(String key, String value) {
+		return put(BencodeKey.of(key), new BencodeString(value));
+	}
+
+	@Override
+	public BencodeDictionary put(String key, long value) {
+		return put(BencodeKey.of(key), new BencodeInteger(value));
+	}
+
+}
@@ -2,21 +2,82 @@ package h8c760d09c742.lib.bencode;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Deserialization of Bencode objects.
+ * <br>Implementations provide the input through {@link #readByte()} and {@link #read(byte[])}
+ * and may override the token level functions {@link #readInteger()}, {@link #readLength(byte)} and {@link #readString(int)}
+ * to scan numbers and strings more efficiently.
  */
 public abstract class BencodeReader extends BencodeIO {
 	
+	/**
+	 * Lower bound of a number accumulated as negative value before it is multiplied by ten, used for overflow checks.
+	 */
+	protected static final long MULT_MIN = Long.MIN_VALUE / 10;
+	
+	/**
+	 * Accumulated value of a number exceeding the range of {@link Long}, distinct from all regular values as these are negated.
+	 */
+	protected static final long OUT_OF_RANGE = 1;
+	
+	/**
+	 * Maximum nesting depth of lists and dictionaries accepted by default.
+	 */
+	public static final int DEFAULT_MAX_DEPTH = 1024;
+	
 	protected abstract byte readByte() throws IOException;
 	protected abstract void read(byte[] data) throws IOException;
 	
+	/**
+	 * Reads bytes into a region of an array.
+	 * Implementations should override this function to avoid copying.
+	 * @param data The destination array.
+	 * @param offset Index of the first byte to fill.
+	 * @param length Number of bytes to read.
+	 * @throws IOException If the input ends or cannot be read.
+	 */
+	protected void read(byte[] data, int offset, int length) throws IOException {
+		if (offset == 0 && length == data.length) {
+			read(data);
+		} else {
+			byte[] part = new byte[length];
+			read(part);
+			System.arraycopy(part, 0, data, offset, length);
+		}
+	}
+	
+	/**
+	 * Discards bytes from the input.
+	 * Implementations should override this function to move past the bytes without reading them.
+	 * @param length Number of bytes to skip.
+	 * @throws IOException If the input ends or cannot be read.
+	 */
+	protected void skip(long length) throws IOException {
+		byte[] chunk = new byte[(int)Math.min(length, 4096)];
+		while (length > 0) {
+			int n = (int)Math.min(length, chunk.length);
+			read(chunk, 0, n);
+			length -= n;
+		}
+	}
+	
 	private boolean atEOF = false;
 	private final BencodeObject ending = new BencodeTerminator();
+	private BencodeObject[] frames = new BencodeObject[8];
+	private long[] frameStarts = new long[8];
+	private Object[] frameKeys = new Object[8];
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	private boolean rawKeys = false;
+	private BencodeSymbolTable symbols;
+	private BencodeSymbolTable.Symbol symbol;
+	private byte[] scratch;
 	
 	/**
 	 * Reads the next Bencode object from the input.
-	 * In case of a list or dictionary, sub-elements are deserialized recursively.<br>
+	 * In case of a list or dictionary, sub-elements are deserialized as well, using an explicit stack rather than recursion.<br>
 	 * Usually a Bencoded document has a dictionary as the top level element.
 	 * For a file/blob containing a single document only one call to this function will be necessary to read all of it.
 	 * @return Deserialized object (including its sub-structure) or {@code null} if the end of input has been reached.
@@ -27,83 +88,346 @@ public abstract class BencodeReader extends BencodeIO {
 	public BencodeObject read() throws IOException {
 		if (closed) throw new IOException("Reader is closed");
 		
-		BencodeObject o;
-		int posStart = getPosition();
-		
+		int depth = 0;
+		long posStart = getOffset();
+		boolean digests = hasDigests();
+		if (digests) clearDigests();
 		try {
-			char start = (char)readByte();
-			if (start == 'i') o = new BencodeInteger(readNumber(new StringBuilder(), true));
-			else if (start == 'l') o = readList(new BencodeList());
-			else if (start == 'd') o = readDictionary(new BencodeDictionary());
-			else if (start == 'e') o = ending;
-			else if (start >= 0x30 && start < 0x3A) o = new BencodeString(readString(start));
-			else throw new IOException(String.format("Unknown start of object 0x%02X", start & 0xFF));
-		} catch (BencodeException e) {
-			throw new BencodeException(e.getMessage() + " part of object @" + posStart, e.getCause());
+			for (;;) {
+				BencodeObject o;
+				posStart = getOffset();
+				if (digests && (depth == 0 || frameKeys[depth - 1] != null)) beginDigests(frameKeys, depth);
+				try {
+					o = readToken(depth);
+				} catch (EOFException e) {
+					if (atEOF) throw e;
+					atEOF = true;
+					if (depth == 0) return null;
+					o = null;
+				}
+				if (o == null) {
+					if (frames[depth - 1].isList()) throw new FrameException("Unexpected end of list", depth - 1);
+					if (frameKeys[depth - 1] == null) throw new FrameException("Unexpected end of dictionary", depth - 1);
+					throw new FrameException("End of input where dictionary value was expected", depth - 1);
+				}
+				if (depth < frames.length && o == frames[depth]) {
+					depth++;
+					continue;
+				}
+				if (o != ending) {
+					track(o, posStart, getOffset(), depth == 0);
+					if (isDigesting()) endDigests(o, depth);
+				}
+				
+				// hand the completed object to the enclosing lists and dictionaries, completing them as well on their ending
+				for (;;) {
+					if (depth == 0) return o;
+					BencodeObject parent = frames[depth - 1];
+					Object key = frameKeys[depth - 1];
+					if (o != ending) {
+						if (parent.isList()) {
+							parent.append(o);
+						} else if (key == null) {
+							if (!o.isString()) throw new FrameException("Illegal dictionary key", depth - 1);
+							if (symbol != null && o == symbol.string) frameKeys[depth - 1] = rawKeys ? symbol.key : symbol.text;
+							else frameKeys[depth - 1] = toKey((BencodeString)o);
+						} else if (rawKeys) {
+							((BencodeRawDictionary)parent).put((BencodeKey)key, o);
+							frameKeys[depth - 1] = null;
+						} else {
+							parent.set((String)key, o);
+							frameKeys[depth - 1] = null;
+						}
+						break;
+					}
+					if (key != null) throw new FrameException("Missing value in dictionary", depth - 1);
+					o = parent;
+					frames[--depth] = null;
+					track(o, frameStarts[depth], getOffset(), depth == 0);
+					if (isDigesting()) endDigests(o, depth);
+				}
+			}
+		} catch (FrameException e) {
+			throw wrap(e.getCause(), frameStarts[e.frame], e.frame);
 		} catch (EOFException e) {
-			if (atEOF) throw e;
-			atEOF = true;
-			return null;
+			throw e;
 		} catch (IOException e) {
-			throw new BencodeException("Parsing error @" + getPosition() + " in object starting @" + posStart, e);
+			throw wrap(e, posStart, depth);
+		} finally {
+			Arrays.fill(frames, 0, Math.min(depth + 1, frames.length), null);
+			Arrays.fill(frameKeys, 0, depth, null);
+			if (isDigesting()) clearDigests();
 		}
+	}
+	
+	/**
+	 * Parsing error attributed to an enclosing list or dictionary rather than the current token.
+	 */
+	private static class FrameException extends IOException {
+		private static final long serialVersionUID = 1L;
+		final int frame;
 		
-		objRef.put(o, new Range(posStart, getPosition()));
-		return o;
-	}
-	
-	private BencodeList readList(BencodeList list) throws IOException {
-		BencodeObject entry;
-		do {
-			entry = read();
-			if (entry == null) throw new IOException("Unexpected end of list");
-			if (entry != ending) list.append(entry);
-		} while (entry != ending);
-		return list;
-	}
-	
-	private BencodeDictionary readDictionary(BencodeDictionary dict) throws IOException {
-		BencodeObject key, value;
-		do {
-			key = read();
-			if (key == null) throw new IOException("Unexpected end of dictionary");
-			if (!(key.isString() || key == ending)) throw new IOException("Illegal dictionary key");
-			if (key != ending) {
-				value = read();
-				if (value == null) throw new IOException("End of input where dictionary value was expected");
-				if (value == ending) throw new IOException("Missing value in dictionary");
-				dict.set(key.getString(), value);
+		FrameException(String message, int frame) {
+			super(new IOException(message));
+			this.frame = frame;
+		}
+	}
+	
+	/**
+	 * Creates the exception for a parsing error, listing the positions of the enclosing lists and dictionaries.
+	 */
+	private BencodeException wrap(Throwable cause, long start, int enclosing) {
+		StringBuilder msg = new StringBuilder("Parsing error @").append(getOffset()).append(" in object starting @").append(start);
+		for (int n = enclosing - 1; n >= 0; n--) msg.append(" part of object @").append(frameStarts[n]);
+		return new BencodeException(msg.toString(), cause);
+	}
+	
+	/**
+	 * Reads a single token. The start of a list or dictionary is pushed onto the stack and returned as well.
+	 */
+	private BencodeObject readToken(int depth) throws IOException {
+		byte start = readByte();
+		if (start == 'i') return new BencodeInteger(readInteger());
+		if (start == 'e') return ending;
+		if (start >= 0x30 && start < 0x3A) {
+			long strLen = readLength(start);
+			if (strLen > Integer.MAX_VALUE) throw new IOException("Maximum string size exceeded");
+			if (symbols != null && strLen <= symbols.getMaxLength()) {
+				int length = (int)strLen;
+				if (scratch == null || scratch.length < length) scratch = new byte[symbols.getMaxLength()];
+				read(scratch, 0, length);
+				symbol = symbols.lookup(scratch, 0, length);
+				return symbol.string;
+			}
+			return readString((int)strLen);
+		}
+		if (start == 'l' || start == 'd') {
+			if (depth >= maxDepth) throw new IOException("Maximum nesting depth exceeded");
+			if (depth == frames.length) {
+				frames = Arrays.copyOf(frames, depth * 2);
+				frameStarts = Arrays.copyOf(frameStarts, depth * 2);
+				frameKeys = Arrays.copyOf(frameKeys, depth * 2);
 			}
-		} while (key != ending);
-		return dict;
+			frameStarts[depth] = getOffset() - 1;
+			return frames[depth] = start == 'l' ? new BencodeList() : rawKeys ? new BencodeRawDictionary() : new BencodeDictionary();
+		}
+		throw new IOException(String.format("Unknown start of object 0x%02X", start & 0xFF));
 	}
 	
-	private byte[] readString(char start) throws IOException {
-		long strLen = (int)readNumber(new StringBuilder().append(start), false);
-		if (strLen > Integer.MAX_VALUE) throw new IOException("Maximum string size exceeded");
-		byte[] data = new byte[(int)strLen];
+	/**
+	 * Gets the maximum nesting depth of lists and dictionaries accepted by this reader.
+	 * @return The maximum number of nested lists and dictionaries.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Limits the nesting depth of lists and dictionaries, input exceeding it is rejected with a {@link BencodeException}.
+	 * @param maxDepth The maximum number of nested lists and dictionaries, {@link #DEFAULT_MAX_DEPTH} by default.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) throw new IllegalArgumentException("Maximum depth must be positive.");
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * Passes the input consumed since the previous call to {@link #capture(byte[], int, int)} while hashes are computed (see {@link #addDigest(String, String...)}).
+	 * This function is called whenever a hashed subtree begins or ends.
+	 * Implementations must either pass all input they consume to {@link #capture(byte[], int, int)} while {@link #isCapturing()},
+	 * or keep track of the position of the previous call and pass the bytes consumed since then here.
+	 */
+	protected void flushCapture() {
+	}
+	
+	/**
+	 * Determines whether this reader passes the input it consumes to {@link #capture(byte[], int, int)}, as described at {@link #flushCapture()}.
+	 * Readers which do not support capturing reject hashes (see {@link #addDigest(String, String...)}) rather than computing them over nothing.
+	 * @return Whether capturing is implemented, {@code false} by default.
+	 */
+	protected boolean supportsCapture() {
+		return false;
+	}
+	
+	@Override
+	boolean canDigest() {
+		return supportsCapture();
+	}
+	
+	@Override
+	void flushDigests() {
+		flushCapture();
+	}
+	
+	/**
+	 * Determines whether consumed input is currently being hashed.
+	 * @return Whether a hashed subtree is being read.
+	 */
+	protected final boolean isCapturing() {
+		return isDigesting();
+	}
+	
+	/**
+	 * Passes consumed input to the hashes being computed.
+	 * @param data Array holding the input.
+	 * @param offset Index of the first byte consumed.
+	 * @param length Number of bytes consumed.
+	 */
+	protected final void capture(byte[] data, int offset, int length) {
+		digest(data, offset, length);
+	}
+	
+	/**
+	 * Passes consumed input to the hashes being computed.
+	 * @param data Buffer holding the consumed input between its position and limit, its position is advanced to its limit.
+	 */
+	protected final void capture(ByteBuffer data) {
+		digest(data);
+	}
+	
+	/**
+	 * Determines whether dictionaries are read with raw byte-string keys.
+	 * @return Whether dictionaries are read as {@link BencodeRawDictionary}.
+	 */
+	public boolean isRawKeys() {
+		return rawKeys;
+	}
+	
+	/**
+	 * Sets whether dictionaries are read as {@link BencodeRawDictionary}, keeping their keys as raw bytes rather than decoding them.
+	 * @param rawKeys Read raw keys, {@code false} by default.
+	 */
+	public void setRawKeys(boolean rawKeys) {
+		this.rawKeys = rawKeys;
+	}
+	
+	/**
+	 * Gets the symbol table used by this reader.
+	 * @return The symbol table or {@code null}.
+	 */
+	public BencodeSymbolTable getSymbolTable() {
+		return symbols;
+	}
+	
+	/**
+	 * Sets a symbol table from which short strings and dictionary keys are taken instead of allocating them for every occurrence.
+	 * Strings read from the table are shared with other documents, their recorded positions refer to their last occurrence.
+	 * @param symbols The symbol table or {@code null} to read all strings normally.
+	 */
+	public void setSymbolTable(BencodeSymbolTable symbols) {
+		this.symbols = symbols;
+		this.symbol = null;
+	}
+	
+	/**
+	 * Converts a string read as a dictionary key into a key as read by this reader, taken from the symbol table if one is set.
+	 * Unlike the reading functions this may be called from any thread, e.g. by readers assembling documents from parts decoded in parallel.
+	 * @param str The string-object holding the key.
+	 * @return A {@link BencodeKey} if raw keys are read (see {@link #setRawKeys(boolean)}), otherwise a {@link String}.
+	 */
+	protected Object toKey(BencodeString str) {
+		BencodeSymbolTable table = symbols;
+		if (table != null && str.length <= table.getMaxLength()) {
+			BencodeSymbolTable.Symbol s = str.array != null ? table.lookup(str.array, str.offset, str.length) : table.lookup(str.getData(), 0, str.length);
+			return rawKeys ? s.key : s.text;
+		}
+		return rawKeys ? BencodeKey.of(str) : str.getString();
+	}
+	
+	/**
+	 * Reads the content of a string-object following its length prefix.
+	 * @param length The length of the string.
+	 * @return The string-object.
+	 * @throws IOException If the input ends or cannot be read.
+	 */
+	protected BencodeString readString(int length) throws IOException {
+		byte[] data = new byte[length];
 		read(data);
-		return data;
-	}
-	
-	private long readNumber(StringBuilder strVal, boolean expectEnd) throws IOException {
-		byte chr;
-		boolean more;
-		do {
-			more = false;
-			try {
-				chr = readByte();
-			} catch (EOFException e) {
-				throw new IOException("Unexpected end of number");
+		return new BencodeString(data);
+	}
+	
+	/**
+	 * Reads the value of an integer-object following its 'i' up to and including the terminating 'e'.
+	 * @return The value of the integer.
+	 * @throws IOException If the number is malformed or the input ends.
+	 */
+	protected long readInteger() throws IOException {
+		return readNumber(-1, true);
+	}
+	
+	/**
+	 * Reads the length prefix of a string-object up to and including the separating ':'.
+	 * @param first The first digit of the length, which has already been consumed.
+	 * @return The length of the string.
+	 * @throws IOException If the number is malformed or the input ends.
+	 */
+	protected long readLength(byte first) throws IOException {
+		return readNumber(first & 0xFF, false);
+	}
+	
+	private long readNumber(int chr, boolean expectEnd) throws IOException {
+		long value = 0;
+		int digits = 0;
+		boolean negative = false, valid = true;
+		for (;; chr = -1) {
+			if (chr < 0) {
+				try {
+					chr = readByte() & 0xFF;
+				} catch (EOFException e) {
+					throw new IOException("Unexpected end of number");
+				}
 			}
-			if (chr >= 0x30 && chr < 0x3A || chr == 0x2D) {
-				strVal.append((char)chr);
-				more = true;
-			} else if (!(chr == ':' && !expectEnd || chr == 'e' && expectEnd)) {
-				throw new IOException(String.format("Unexpected character 0x%02X in %s", chr & 0xFF, (expectEnd ? "value" : "length")));
+			if (chr >= 0x30 && chr < 0x3A) {
+				value = appendDigit(value, chr - 0x30, negative);
+				digits++;
+			} else if (chr == 0x2D) {
+				if (digits > 0 || negative) valid = false;
+				negative = true;
+			} else if (chr == (expectEnd ? 'e' : ':')) {
+				break;
+			} else {
+				throw unexpectedCharacter(chr, expectEnd);
 			}
-		} while (more);
-		return Long.parseLong(strVal.toString());
+		}
+		return checkNumber(value, digits, negative, valid);
+	}
+	
+	/**
+	 * Creates the exception for a character which is not allowed in a number.
+	 * @param chr The unsigned byte value of the offending character.
+	 * @param expectEnd Whether an integer value (rather than a string length) was being read.
+	 * @return The exception to be thrown.
+	 */
+	protected static IOException unexpectedCharacter(int chr, boolean expectEnd) {
+		return new IOException(String.format("Unexpected character 0x%02X in %s", chr & 0xFF, (expectEnd ? "value" : "length")));
+	}
+	
+	/**
+	 * Appends a digit to a number accumulated as a negative value (to cover the full range of {@link Long}).
+	 * @param value The negated value of the preceding digits, 0 before the first digit.
+	 * @param digit The value of the digit.
+	 * @param negative Whether a minus sign was encountered.
+	 * @return The negated value including the digit, {@link #OUT_OF_RANGE} once the number exceeds the range of {@link Long}.
+	 */
+	protected static long appendDigit(long value, int digit, boolean negative) {
+		if (value < MULT_MIN || value == OUT_OF_RANGE) return OUT_OF_RANGE;
+		value *= 10;
+		return value < (negative ? Long.MIN_VALUE : -Long.MAX_VALUE) + digit ? OUT_OF_RANGE : value - digit;
+	}
+	
+	/**
+	 * Verifies and finalizes a number accumulated as a negative value (to cover the full range of {@link Long}).
+	 * @param value The negated value of the digits, see {@link #appendDigit(long, int, boolean)}.
+	 * @param digits The number of digits.
+	 * @param negative Whether a minus sign was encountered.
+	 * @param valid Whether the minus sign appeared only in front.
+	 * @return The final value.
+	 * @throws IOException If the number is not valid.
+	 */
+	protected static long checkNumber(long value, int digits, boolean negative, boolean valid) throws IOException {
+		if (digits == 0) throw new IOException("Missing digits in number");
+		if (!valid || value == OUT_OF_RANGE) throw new IOException("Invalid number");
+		return negative ? value : -value;
 	}
 
 }
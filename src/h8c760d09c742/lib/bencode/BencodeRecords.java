@@ -0,0 +1,493 @@
+package h8c760d09c742.lib.bencode;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of a string consisting of fixed-width records, e.g. the piece hashes of a torrent or compact peer and node lists.
+ * Records are accessed in place without copying the string, so hashes and peers can be looked up without allocating any objects.
+ * For peer and node lists the address and port of a record are extracted into primitives,
+ * the layouts are given by the record width: a 4 or 16 byte IP address followed by a 2 byte port,
+ * for nodes preceded by a 20 byte node ID. All values are in network byte order.<br>
+ * Records are written by a {@link Builder}.
+ */
+public final class BencodeRecords implements Iterable<ByteBuffer> {
+
+	/** Width of SHA-1 hashes, e.g. in the {@code pieces} string of a torrent. */
+	public static final int HASH_WIDTH = 20;
+	/** Width of compact IPv4 peers. */
+	public static final int PEER_WIDTH = 6;
+	/** Width of compact IPv6 peers. */
+	public static final int PEER6_WIDTH = 18;
+	/** Width of compact IPv4 DHT nodes. */
+	public static final int NODE_WIDTH = 26;
+	/** Width of compact IPv6 DHT nodes. */
+	public static final int NODE6_WIDTH = 38;
+
+	private final BencodeString str;
+	private final byte[] array;
+	private final ByteBuffer buffer;
+	private final int base, width, count;
+
+	/**
+	 * Creates a view of a string as records.
+	 * @param str The string holding the records back to back.
+	 * @param width The number of bytes per record.
+	 * @throws IllegalArgumentException If the length of the string is not a multiple of the width.
+	 */
+	public BencodeRecords(BencodeString str, int width) {
+		if (width < 1) throw new IllegalArgumentException("Width must be positive.");
+		if (str.length % width != 0) throw new IllegalArgumentException("Length " + str.length + " is not a multiple of the record width " + width);
+		this.str = str;
+		this.array = str.array;
+		this.buffer = str.buffer;
+		this.base = str.offset;
+		this.width = width;
+		this.count = str.length / width;
+	}
+
+	/**
+	 * Creates a view of a string as records, which must be a string-object.
+	 * @see #BencodeRecords(BencodeString, int)
+	 */
+	public BencodeRecords(BencodeObject str, int width) {
+		this(asString(str), width);
+	}
+
+	private static BencodeString asString(BencodeObject obj) {
+		if (!(obj instanceof BencodeString)) throw new IllegalArgumentException("Records must be held by a string.");
+		return (BencodeString)obj;
+	}
+
+	/**
+	 * Gets the string viewed.
+	 * @return The string-object.
+	 */
+	public BencodeString getString() {
+		return str;
+	}
+
+	/**
+	 * Gets the width of the records.
+	 * @return The number of bytes per record.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the number of records.
+	 * @return The length of the string divided by the width.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private int start(int index) {
+		if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Record " + index + " of " + count);
+		return index * width;
+	}
+
+	private byte get(int pos) {
+		return array != null ? array[base + pos] : buffer.get(base + pos);
+	}
+
+	/**
+	 * Retrieves a single byte of a record.
+	 * @param index Index of the record.
+	 * @param offset Position of the byte in the record.
+	 * @return The byte.
+	 */
+	public byte byteAt(int index, int offset) {
+		if (offset < 0 || offset >= width) throw new IndexOutOfBoundsException();
+		return get(start(index) + offset);
+	}
+
+	/**
+	 * Retrieves an unsigned 16-bit number from a record.
+	 * @param index Index of the record.
+	 * @param offset Position of the number in the record.
+	 * @return The number in network byte order.
+	 */
+	public int shortAt(int index, int offset) {
+		if (offset < 0 || offset > width - 2) throw new IndexOutOfBoundsException();
+		int p = start(index) + offset;
+		return (get(p) & 0xFF) << 8 | get(p + 1) & 0xFF;
+	}
+
+	/**
+	 * Retrieves a 32-bit number from a record.
+	 * @param index Index of the record.
+	 * @param offset Position of the number in the record.
+	 * @return The number in network byte order.
+	 */
+	public int intAt(int index, int offset) {
+		if (offset < 0 || offset > width - 4) throw new IndexOutOfBoundsException();
+		int p = start(index) + offset;
+		return (get(p) & 0xFF) << 24 | (get(p + 1) & 0xFF) << 16 | (get(p + 2) & 0xFF) << 8 | get(p + 3) & 0xFF;
+	}
+
+	/**
+	 * Retrieves a 64-bit number from a record.
+	 * @param index Index of the record.
+	 * @param offset Position of the number in the record.
+	 * @return The number in network byte order.
+	 */
+	public long longAt(int index, int offset) {
+		if (offset < 0 || offset > width - 8) throw new IndexOutOfBoundsException();
+		return (long)intAt(index, offset) << 32 | intAt(index, offset + 4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Copies a record.
+	 * @param index Index of the record.
+	 * @param dst The destination array.
+	 * @param dstOffset Position in the destination array.
+	 */
+	public void copyTo(int index, byte[] dst, int dstOffset) {
+		str.copyTo(start(index), dst, dstOffset, width);
+	}
+
+	/**
+	 * Retrieves a copy of a record.
+	 * @param index Index of the record.
+	 * @return A new array holding the record.
+	 */
+	public byte[] record(int index) {
+		byte[] r = new byte[width];
+		copyTo(index, r, 0);
+		return r;
+	}
+
+	/**
+	 * Compares a record to a value of the same width, as unsigned bytes.
+	 * @param index Index of the record.
+	 * @param value The bytes to compare to.
+	 * @return A negative number, zero or a positive number if the record is less than, equal to or greater than the value.
+	 */
+	public int compareRecord(int index, byte[] value) {
+		if (value.length != width) throw new IllegalArgumentException("Value does not match the record width " + width);
+		int p = start(index);
+		if (array != null) {
+			for (int n = 0, a = base + p; n < width; n++, a++) {
+				if (array[a] != value[n]) return (array[a] & 0xFF) - (value[n] & 0xFF);
+			}
+		} else {
+			for (int n = 0; n < width; n++) {
+				byte b = buffer.get(base + p + n);
+				if (b != value[n]) return (b & 0xFF) - (value[n] & 0xFF);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Searches a record by comparing each record in turn.
+	 * @param value The bytes to look for, as wide as a record.
+	 * @return Index of the first record equal to the value or {@code -1} if there is none.
+	 */
+	public int indexOf(byte[] value) {
+		for (int n = 0; n < count; n++) {
+			if (compareRecord(n, value) == 0) return n;
+		}
+		return -1;
+	}
+
+	/**
+	 * Searches a record by binary search, the records must be sorted in ascending order of their unsigned bytes.
+	 * @param value The bytes to look for, as wide as a record.
+	 * @return Index of a record equal to the value, otherwise {@code (-(insertion point) - 1)} as by {@link Arrays#binarySearch(int[], int)}.
+	 */
+	public int binarySearch(byte[] value) {
+		int low = 0, high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compareRecord(mid, value);
+			if (c < 0) low = mid + 1;
+			else if (c > 0) high = mid - 1;
+			else return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Gets the position of the IP address in peer and node records.
+	 */
+	private int addressOffset() {
+		switch (width) {
+		case PEER_WIDTH:
+		case PEER6_WIDTH:
+			return 0;
+		case NODE_WIDTH:
+		case NODE6_WIDTH:
+			return HASH_WIDTH;
+		default:
+			throw new IllegalStateException("Records of width " + width + " are neither peers nor nodes");
+		}
+	}
+
+	private boolean isIPv6() {
+		return width == PEER6_WIDTH || width == NODE6_WIDTH;
+	}
+
+	/**
+	 * Retrieves the IPv4 address of a compact peer or node.
+	 * @param index Index of the record.
+	 * @return The address in network byte order.
+	 * @throws IllegalStateException If the records are not IPv4 peers or nodes.
+	 */
+	public int getIPv4(int index) {
+		int off = addressOffset();
+		if (isIPv6()) throw new IllegalStateException("Records hold IPv6 addresses");
+		return intAt(index, off);
+	}
+
+	/**
+	 * Retrieves the upper half of the IPv6 address of a compact peer or node.
+	 * @param index Index of the record.
+	 * @return The first 8 bytes of the address in network byte order.
+	 * @throws IllegalStateException If the records are not IPv6 peers or nodes.
+	 */
+	public long getIPv6High(int index) {
+		int off = addressOffset();
+		if (!isIPv6()) throw new IllegalStateException("Records hold IPv4 addresses");
+		return longAt(index, off);
+	}
+
+	/**
+	 * Retrieves the lower half of the IPv6 address of a compact peer or node.
+	 * @param index Index of the record.
+	 * @return The last 8 bytes of the address in network byte order.
+	 * @throws IllegalStateException If the records are not IPv6 peers or nodes.
+	 */
+	public long getIPv6Low(int index) {
+		int off = addressOffset();
+		if (!isIPv6()) throw new IllegalStateException("Records hold IPv4 addresses");
+		return longAt(index, off + 8);
+	}
+
+	/**
+	 * Retrieves the port of a compact peer or node.
+	 * @param index Index of the record.
+	 * @return The port number.
+	 * @throws IllegalStateException If the records are neither peers nor nodes.
+	 */
+	public int getPort(int index) {
+		addressOffset();
+		return shortAt(index, width - 2);
+	}
+
+	/**
+	 * Creates the socket address of a compact peer or node, which unlike the other accessors allocates objects.
+	 * @param index Index of the record.
+	 * @return The IP address and port.
+	 * @throws IllegalStateException If the records are neither peers nor nodes.
+	 */
+	public InetSocketAddress getSocketAddress(int index) {
+		int off = addressOffset();
+		byte[] addr = new byte[isIPv6() ? 16 : 4];
+		str.copyTo(start(index) + off, addr, 0, addr.length);
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(addr), getPort(index));
+		} catch (UnknownHostException e) {
+			// not thrown for addresses of valid length
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Iterates the records as a single read-only buffer, which is moved to the next record by each call of {@link Iterator#next()}.
+	 * The record is held by the buffer between its position and limit, which are relative to the storage of the string.
+	 * @return An iterator over all records.
+	 */
+	@Override
+	public Iterator<ByteBuffer> iterator() {
+		ByteBuffer view = array != null ? ByteBuffer.wrap(array).asReadOnlyBuffer() : buffer.asReadOnlyBuffer();
+		return new Iterator<ByteBuffer>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			@Override
+			public ByteBuffer next() {
+				if (next >= count) throw new NoSuchElementException();
+				int p = base + next++ * width;
+				view.limit(view.capacity()).position(p);
+				view.limit(p + width);
+				return view;
+			}
+		};
+	}
+
+	/**
+	 * Construction of strings consisting of fixed-width records.
+	 * The strings built share the storage of the builder, which only appends to it, so the builder can be used further.
+	 */
+	public static final class Builder {
+
+		private final int width;
+		private byte[] data;
+		private int size;
+
+		/**
+		 * Creates a builder of records.
+		 * @param width The number of bytes per record.
+		 */
+		public Builder(int width) {
+			this(width, 16);
+		}
+
+		/**
+		 * Creates a builder of records.
+		 * @param width The number of bytes per record.
+		 * @param capacity The number of records to allocate space for initially.
+		 */
+		public Builder(int width, int capacity) {
+			if (width < 1) throw new IllegalArgumentException("Width must be positive.");
+			if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative.");
+			this.width = width;
+			this.data = new byte[(int)Math.min((long)width * Math.max(capacity, 1), Integer.MAX_VALUE - 8)];
+		}
+
+		/**
+		 * Gets the number of records added.
+		 * @return The number of records.
+		 */
+		public int getCount() {
+			return size / width;
+		}
+
+		private int reserve() {
+			data = BencodeWriter.grow(data, size, width);
+			int p = size;
+			size += width;
+			return p;
+		}
+
+		/**
+		 * Appends a record.
+		 * @param record Array holding the record.
+		 * @param offset Index of the first byte of the record.
+		 * @return This builder.
+		 */
+		public Builder add(byte[] record, int offset) {
+			if (offset < 0 || offset > record.length - width) throw new IndexOutOfBoundsException();
+			int p = reserve();
+			System.arraycopy(record, offset, data, p, width);
+			return this;
+		}
+
+		/**
+		 * Appends a record.
+		 * @param record The record, as wide as the records of this builder.
+		 * @return This builder.
+		 */
+		public Builder add(byte[] record) {
+			if (record.length != width) throw new IllegalArgumentException("Record does not match the width " + width);
+			return add(record, 0);
+		}
+
+		/**
+		 * Appends a record of a view, without copying it to an intermediate array.
+		 * @param records The view holding records of the same width.
+		 * @param index Index of the record.
+		 * @return This builder.
+		 */
+		public Builder add(BencodeRecords records, int index) {
+			if (records.width != width) throw new IllegalArgumentException("Records do not match the width " + width);
+			int src = records.start(index), p = reserve();
+			records.str.copyTo(src, data, p, width);
+			return this;
+		}
+
+		private void putPort(int p, int port) {
+			data[p] = (byte)(port >> 8);
+			data[p + 1] = (byte)port;
+		}
+
+		/**
+		 * Appends a compact IPv4 peer.
+		 * @param ipv4 The IP address in network byte order.
+		 * @param port The port number.
+		 * @return This builder.
+		 */
+		public Builder addPeer(int ipv4, int port) {
+			if (width != PEER_WIDTH) throw new IllegalStateException("Records of width " + width + " are not IPv4 peers");
+			if (port < 0 || port > 0xFFFF) throw new IllegalArgumentException("Invalid port " + port);
+			int p = reserve();
+			putPort(p + 4, port);
+			data[p] = (byte)(ipv4 >> 24);
+			data[p + 1] = (byte)(ipv4 >> 16);
+			data[p + 2] = (byte)(ipv4 >> 8);
+			data[p + 3] = (byte)ipv4;
+			return this;
+		}
+
+		/**
+		 * Appends a compact peer, the address family has to match the width of the records.
+		 * @param address The IP address.
+		 * @param port The port number.
+		 * @return This builder.
+		 */
+		public Builder addPeer(InetAddress address, int port) {
+			return addNode(null, address, port);
+		}
+
+		/**
+		 * Appends a compact peer, the address family has to match the width of the records.
+		 * @param address The IP address and port.
+		 * @return This builder.
+		 */
+		public Builder addPeer(InetSocketAddress address) {
+			return addPeer(address.getAddress(), address.getPort());
+		}
+
+		/**
+		 * Appends a compact DHT node, the address family has to match the width of the records.
+		 * @param id The 20 byte node ID.
+		 * @param address The IP address.
+		 * @param port The port number.
+		 * @return This builder.
+		 */
+		public Builder addNode(byte[] id, InetAddress address, int port) {
+			int idLength = id != null ? HASH_WIDTH : 0;
+			if (id != null && id.length != HASH_WIDTH) throw new IllegalArgumentException("Node ID must have " + HASH_WIDTH + " bytes");
+			if (address == null) throw new IllegalArgumentException("Address must not be null.");
+			byte[] addr = address.getAddress();
+			if (idLength + addr.length + 2 != width) {
+				throw new IllegalStateException("Records of width " + width + " do not match " + (id != null ? "nodes" : "peers") + " of " + address);
+			}
+			if (port < 0 || port > 0xFFFF) throw new IllegalArgumentException("Invalid port " + port);
+			int p = reserve();
+			if (id != null) System.arraycopy(id, 0, data, p, HASH_WIDTH);
+			System.arraycopy(addr, 0, data, p + idLength, addr.length);
+			putPort(p + width - 2, port);
+			return this;
+		}
+
+		/**
+		 * Creates a string of the records added so far, which shares the storage of this builder.
+		 * @return The string-object.
+		 */
+		public BencodeString build() {
+			return new BencodeString(data, 0, size);
+		}
+
+		/**
+		 * Creates a view of the records added so far.
+		 * @return The view of the string returned by {@link #build()}.
+		 */
+		public BencodeRecords toRecords() {
+			return new BencodeRecords(build(), width);
+		}
+	}
+
+}
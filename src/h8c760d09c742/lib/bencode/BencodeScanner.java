@@ -0,0 +1,352 @@
+package h8c760d09c742.lib.bencode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cursor over Bencoded data in a byte buffer.
+ * Heap buffers are accessed by index in their backing array, direct buffers by absolute access.<br>
+ * Structures can be validated and skipped without creating any objects,
+ * or be wrapped in lazy list- and dictionary-objects which decode their elements on demand.
+ */
+public final class BencodeScanner {
+
+	private final byte[] array;
+	private final int arrayOffset;
+	private final ByteBuffer buffer;
+	private int position, limit;
+	private long nesting;
+	private long[] deepNesting;
+	private int maxDepth = BencodeReader.DEFAULT_MAX_DEPTH;
+	
+	/**
+	 * Creates a new scanner over the content of a buffer.
+	 * The scanner starts at the current position of the buffer and stops at its current limit,
+	 * both can be changed independently of the buffer afterwards.
+	 * @param buf The buffer to scan.
+	 */
+	public BencodeScanner(ByteBuffer buf) {
+		if (buf.hasArray()) {
+			this.array = buf.array();
+			this.arrayOffset = buf.arrayOffset();
+			this.buffer = null;
+		} else {
+			this.array = null;
+			this.arrayOffset = 0;
+			this.buffer = buf.duplicate();
+			this.buffer.limit(buffer.capacity());
+		}
+		this.position = buf.position();
+		this.limit = buf.limit();
+	}
+	
+	private BencodeScanner(BencodeScanner src, int position, int limit) {
+		this.array = src.array;
+		this.arrayOffset = src.arrayOffset;
+		this.buffer = src.buffer;
+		this.position = position;
+		this.limit = limit;
+		this.maxDepth = src.maxDepth;
+	}
+	
+	/**
+	 * Gets the index of the next byte to be scanned.
+	 * @return The current position.
+	 */
+	public int position() {
+		return position;
+	}
+	
+	/**
+	 * Sets the index of the next byte to be scanned.
+	 * @param position The new position.
+	 */
+	public void position(int position) {
+		if (position < 0 || position > limit) throw new IllegalArgumentException("Position out of bounds.");
+		this.position = position;
+	}
+	
+	/**
+	 * Gets the index of the first byte not to be scanned.
+	 * @return The current limit.
+	 */
+	public int limit() {
+		return limit;
+	}
+	
+	/**
+	 * Sets the index of the first byte not to be scanned.
+	 * @param limit The new limit, must not exceed the capacity of the underlying buffer.
+	 */
+	public void limit(int limit) {
+		if (limit < 0 || limit > (array != null ? array.length - arrayOffset : buffer.capacity())) throw new IllegalArgumentException("Limit out of bounds.");
+		this.limit = limit;
+		if (position > limit) position = limit;
+	}
+	
+	private byte get(int index) {
+		return array != null ? array[arrayOffset + index] : buffer.get(index);
+	}
+	
+	/**
+	 * Retrieves a byte without moving the cursor.
+	 * @param index Absolute index of the byte.
+	 * @return The byte at the specified position.
+	 */
+	public byte byteAt(int index) {
+		if (index < 0 || index >= limit) throw new IndexOutOfBoundsException();
+		return get(index);
+	}
+	
+	/**
+	 * Reads an integer value or string length at the current position up to and including its terminator.
+	 * @param expectEnd Whether an integer value terminated by 'e' (rather than a string length terminated by ':') is expected.
+	 * @return The value of the number.
+	 * @throws IOException If the number is malformed or the limit is reached.
+	 */
+	public long readNumber(boolean expectEnd) throws IOException {
+		final byte end = (byte)(expectEnd ? 'e' : ':');
+		long value = 0;
+		int digits = 0;
+		boolean negative = false, valid = true;
+		for (int index = position;; index++) {
+			if (index >= limit) {
+				position = limit;
+				throw new IOException("Unexpected end of number");
+			}
+			byte chr = get(index);
+			if (chr >= 0x30 && chr < 0x3A) {
+				value = BencodeReader.appendDigit(value, chr - 0x30, negative);
+				digits++;
+			} else if (chr == 0x2D) {
+				if (digits > 0 || negative) valid = false;
+				negative = true;
+			} else {
+				position = index + 1;
+				if (chr == end) break;
+				throw BencodeReader.unexpectedCharacter(chr, expectEnd);
+			}
+		}
+		return BencodeReader.checkNumber(value, digits, negative, valid);
+	}
+	
+	/**
+	 * Creates a string-object backed by the bytes at the current position and moves the cursor behind them.
+	 * @param length The length of the string.
+	 * @return A string-object sharing the underlying array or buffer.
+	 * @throws EOFException If the limit would be exceeded.
+	 */
+	public BencodeString readString(int length) throws EOFException {
+		if (limit - position < length) throw new EOFException();
+		BencodeString str = slice(position, length);
+		position += length;
+		return str;
+	}
+	
+	private BencodeString slice(int index, int length) {
+		return array != null ? new BencodeString(array, arrayOffset + index, length) : new BencodeString(buffer, index, length);
+	}
+	
+	ByteBuffer view(int start, int end) {
+		ByteBuffer view;
+		if (array != null) {
+			view = ByteBuffer.wrap(array, arrayOffset + start, end - start).slice();
+		} else {
+			view = buffer.duplicate();
+			view.limit(end).position(start);
+			view = view.slice();
+		}
+		return view.asReadOnlyBuffer();
+	}
+	
+	private void push(int depth, boolean dict) {
+		int bit = depth & 63;
+		if (depth < 64) {
+			nesting = dict ? nesting | 1L << bit : nesting & ~(1L << bit);
+			return;
+		}
+		int n = (depth >> 6) - 1;
+		if (deepNesting == null) deepNesting = new long[4];
+		if (n >= deepNesting.length) deepNesting = Arrays.copyOf(deepNesting, n * 2);
+		deepNesting[n] = dict ? deepNesting[n] | 1L << bit : deepNesting[n] & ~(1L << bit);
+	}
+	
+	private boolean isDict(int depth) {
+		return ((depth < 64 ? nesting : deepNesting[(depth >> 6) - 1]) & 1L << (depth & 63)) != 0;
+	}
+	
+	private IOException endOfInput(int depth, boolean expectKey) {
+		position = limit;
+		if (!isDict(depth)) return new IOException("Unexpected end of list");
+		return new IOException(expectKey ? "Unexpected end of dictionary" : "End of input where dictionary value was expected");
+	}
+	
+	/**
+	 * Gets the maximum nesting depth of lists and dictionaries accepted by this scanner.
+	 * @return The maximum number of nested lists and dictionaries.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Limits the nesting depth of lists and dictionaries, deeper structures are rejected as malformed.
+	 * @param maxDepth The maximum number of nested lists and dictionaries, {@link BencodeReader#DEFAULT_MAX_DEPTH} by default.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) throw new IllegalArgumentException("Maximum depth must be positive.");
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * Moves the cursor behind the value at the current position, including its sub-structure.
+	 * The structure is validated the same way as by {@link BencodeReader} but no objects are created.
+	 * @throws EOFException If the limit is reached within a top-level string.
+	 * @throws IOException If the structure is malformed.
+	 */
+	public void skipValue() throws IOException {
+		int depth = -1;
+		boolean expectKey = false;
+		for (;;) {
+			if (position >= limit) {
+				if (depth < 0) throw new EOFException();
+				throw endOfInput(depth, expectKey);
+			}
+			byte chr = get(position);
+			if (chr == 'e' && depth >= 0) {
+				if (!expectKey && isDict(depth)) {
+					position++;
+					throw new IOException("Missing value in dictionary");
+				}
+				position++;
+				if (--depth < 0) return;
+				expectKey = isDict(depth);
+				continue;
+			}
+			if (expectKey && !(chr >= 0x30 && chr < 0x3A)) {
+				throw new IOException("Illegal dictionary key");
+			}
+			if (chr == 'i') {
+				position++;
+				readNumber(true);
+			} else if (chr == 'l' || chr == 'd') {
+				position++;
+				if (depth + 1 >= maxDepth) throw new IOException("Maximum nesting depth exceeded");
+				push(++depth, chr == 'd');
+				expectKey = chr == 'd';
+				continue;
+			} else if (chr >= 0x30 && chr < 0x3A) {
+				long length = readNumber(false);
+				if (length > limit - position) {
+					if (depth < 0) {
+						position = limit;
+						throw new EOFException();
+					}
+					throw endOfInput(depth, expectKey);
+				}
+				position += (int)length;
+			} else {
+				position++;
+				throw new IOException(String.format("Unknown start of object 0x%02X", chr & 0xFF));
+			}
+			if (depth < 0) return;
+			if (isDict(depth)) expectKey = !expectKey;
+		}
+	}
+	
+	/**
+	 * Reads the value at the current position without decoding its sub-structure.
+	 * Lists and dictionaries are validated and returned as lazy objects,
+	 * which decode their elements from the underlying array or buffer when they are accessed,
+	 * strings are backed by the underlying array or buffer as well.
+	 * The content of the underlying array or buffer must therefore not be modified as long as these objects are in use.<br>
+	 * Writers copy the encoded form of lazy objects directly unless they or any of their elements have been modified.
+	 * @return The object at the current position.
+	 * @throws EOFException If the limit is reached.
+	 * @throws IOException If the structure is malformed.
+	 */
+	public BencodeObject readLazy() throws IOException {
+		int start = position;
+		if (start >= limit) throw new EOFException();
+		skipValue();
+		return decode(start, position);
+	}
+	
+	/**
+	 * Creates the object for a range which has been validated by {@link #skipValue()}.
+	 */
+	BencodeObject decode(int start, int end) {
+		byte chr = get(start);
+		if (chr == 'd') return new BencodeLazyDictionary(this, start, end);
+		if (chr == 'l') return new BencodeLazyList(this, start, end);
+		BencodeScanner scan = new BencodeScanner(this, start, end);
+		try {
+			if (chr == 'i') {
+				scan.position++;
+				return new BencodeInteger(scan.readNumber(true));
+			}
+			return scan.readString((int)scan.readNumber(false));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Determines the ranges of the elements of a list or dictionary which has been validated by {@link #skipValue()}.
+	 * @param start Position of the list or dictionary.
+	 * @param end Position after the list or dictionary.
+	 * @param dict Whether the ranges of dictionary keys should be included.
+	 * @return Start and end positions of all elements (or keys and values) in order.
+	 */
+	int[] index(int start, int end, boolean dict) {
+		BencodeScanner scan = new BencodeScanner(this, start + 1, end);
+		int[] index = new int[8];
+		int n = 0;
+		try {
+			while (scan.get(scan.position) != 'e') {
+				if (n + 4 > index.length) index = Arrays.copyOf(index, index.length * 2);
+				if (dict) {
+					int length = (int)scan.readNumber(false);
+					index[n++] = scan.position;
+					index[n++] = scan.position += length;
+				}
+				index[n++] = scan.position;
+				scan.skipValue();
+				index[n++] = scan.position;
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return Arrays.copyOf(index, n);
+	}
+	
+	/**
+	 * Compares two byte strings in the underlying array or buffer, as unsigned bytes.
+	 */
+	int compare(int start1, int end1, int start2, int end2) {
+		for (; start1 < end1 && start2 < end2; start1++, start2++) {
+			int c = (get(start1) & 0xFF) - (get(start2) & 0xFF);
+			if (c != 0) return c;
+		}
+		return (end1 - start1) - (end2 - start2);
+	}
+	
+	/**
+	 * Compares a byte string in the underlying array or buffer with a byte array, as unsigned bytes.
+	 */
+	int compare(int start, int end, byte[] key) {
+		int i = 0;
+		for (; start < end && i < key.length; start++, i++) {
+			int c = (get(start) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0) return c;
+		}
+		return (end - start) - (key.length - i);
+	}
+	
+	String decodeString(int start, int end) {
+		return slice(start, end - start).getString();
+	}
+
+}
@@ -1,15 +1,21 @@
 package h8c760d09c742.lib.bencode;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
  * String of bytes in Bencoding.
  * A String may contain UTF-8 encoded text or arbitrary data.<br>
- * The Bencode format itself does not indicate the format of the data a String contains. 
+ * The Bencode format itself does not indicate the format of the data a String contains.<br>
+ * A String may be backed by a region of a larger array or buffer, e.g. the input of a reader.
+ * Such a slice is only copied if {@link #getData()} is called.
  */
 public class BencodeString extends BencodeObject {
 
-	private final byte[] data;
+	final byte[] array;
+	final ByteBuffer buffer;
+	final int offset, length;
+	private byte[] data;
 	
 	private static byte[] stringToBytes(String str) {
 		if (str == null) throw new IllegalArgumentException("String must not be null.");
@@ -22,9 +28,52 @@ public class BencodeString extends BencodeObject {
 	 */
 	public BencodeString(byte[] str) {
 		if (str == null) throw new IllegalArgumentException("String content cannot not be null.");
+		this.array = str;
+		this.buffer = null;
+		this.offset = 0;
+		this.length = str.length;
 		this.data = str;
 	}
 	
+	/**
+	 * Create a Bencode object representing a region of a byte array without copying it.
+	 * @param array The array holding the string.
+	 * @param offset Index of the first byte of the string.
+	 * @param length Length of the string.
+	 */
+	public BencodeString(byte[] array, int offset, int length) {
+		if (array == null) throw new IllegalArgumentException("String content cannot not be null.");
+		if (offset < 0 || length < 0 || offset > array.length - length) throw new IndexOutOfBoundsException();
+		this.array = array;
+		this.buffer = null;
+		this.offset = offset;
+		this.length = length;
+		this.data = offset == 0 && length == array.length ? array : null;
+	}
+	
+	/**
+	 * Create a Bencode object representing a region of a buffer without copying it.
+	 * The region is addressed absolutely, independent of the position of the buffer,
+	 * and must not be modified or excluded by lowering the limit of the buffer as long as this object is in use.
+	 * @param buffer The buffer holding the string.
+	 * @param index Index of the first byte of the string.
+	 * @param length Length of the string.
+	 */
+	public BencodeString(ByteBuffer buffer, int index, int length) {
+		if (buffer == null) throw new IllegalArgumentException("String content cannot not be null.");
+		if (index < 0 || length < 0 || index > buffer.limit() - length) throw new IndexOutOfBoundsException();
+		if (buffer.hasArray()) {
+			this.array = buffer.array();
+			this.buffer = null;
+			this.offset = buffer.arrayOffset() + index;
+		} else {
+			this.array = null;
+			this.buffer = buffer;
+			this.offset = index;
+		}
+		this.length = length;
+	}
+	
 	/**
 	 * Create a Bencode string-object from a Unicode string.
 	 * @param str The string to be wrapped.
@@ -38,9 +87,77 @@ public class BencodeString extends BencodeObject {
 		return true;
 	}
 
+	/**
+	 * Returns the byte array of this string.
+	 * If the string is a slice of a larger array or buffer, its content is copied on the first call.
+	 * @return A byte array.
+	 */
 	@Override
 	public byte[] getData() {
-		return data;
+		byte[] d = data;
+		if (d == null) {
+			d = new byte[length];
+			copyTo(0, d, 0, length);
+			data = d;
+		}
+		return d;
+	}
+	
+	@Override
+	public int getLength() {
+		return length;
+	}
+	
+	@Override
+	public ByteBuffer getBuffer() {
+		ByteBuffer view;
+		if (array != null) {
+			view = ByteBuffer.wrap(array, offset, length).slice();
+		} else {
+			view = buffer.duplicate();
+			view.limit(offset + length).position(offset);
+			view = view.slice();
+		}
+		return view.asReadOnlyBuffer();
+	}
+	
+	@Override
+	public String getString() {
+		if (array != null) return new String(array, offset, length, StandardCharsets.UTF_8);
+		byte[] d = data;
+		if (d == null) {
+			d = new byte[length];
+			copyTo(0, d, 0, length);
+		}
+		return new String(d, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Retrieves a single byte of this string without copying its content.
+	 * @param index Zero-based index of the byte.
+	 * @return The byte at the specified position.
+	 */
+	public byte byteAt(int index) {
+		if (index < 0 || index >= length) throw new IndexOutOfBoundsException();
+		return array != null ? array[offset + index] : buffer.get(offset + index);
+	}
+	
+	/**
+	 * Copies a part of this string to an array.
+	 * @param index Zero-based index of the first byte to copy.
+	 * @param dst The destination array.
+	 * @param dstOffset Position in the destination array.
+	 * @param count Number of bytes to copy.
+	 */
+	public void copyTo(int index, byte[] dst, int dstOffset, int count) {
+		if (index < 0 || count < 0 || index > length - count) throw new IndexOutOfBoundsException();
+		if (array != null) {
+			System.arraycopy(array, offset + index, dst, dstOffset, count);
+		} else {
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + index);
+			view.get(dst, dstOffset, count);
+		}
 	}
 
 	@Override
@@ -1,25 +1,42 @@
 package h8c760d09c742.lib.bencode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
  * Generation of printable representations of Bencode entities. 
- * Elements of lists and dictionaries are converted recursively.
+ * Elements of lists and dictionaries are converted as well, using an explicit stack rather than recursion.<br>
+ * The output is appended to any {@link Appendable} as it is generated, e.g. a {@link Writer} of a log.
+ * It can be bounded by limits on the hex-dump of each string, the nesting depth and elements shown per list or dictionary
+ * as well as the total output, so large documents can be printed safely.
+ * Failures of the underlying {@link Appendable} are thrown as {@link UncheckedIOException}.
  */
 public class BencodeStringifier implements BencodeVisitor {
 
-	private final StringBuilder str;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final String ELLIPSIS = "\u2026";
+	
+	private final Appendable str;
 	private final String prefix;
 	private final String indent;
 	private final boolean dumpStrings;
 	private final BencodeIO io;
+	private int maxStringBytes = Integer.MAX_VALUE, maxDepth = Integer.MAX_VALUE, maxElements = Integer.MAX_VALUE;
+	private long maxOutput = Long.MAX_VALUE, written;
+	private boolean truncated;
 	
 	/**
-	 * Setup of a Bencode object structure to String converstion.
-	 * @param str A {@link StringBuilder} to which the representations of the processed objects will be appended.
+	 * Setup of a Bencode object structure to String conversion, writing to any destination.
+	 * @param str An {@link Appendable}, e.g. a {@link Writer} or {@link StringBuilder}, to which the representations of the processed objects will be appended.
 	 * @see BencodeStringifier#BencodeStringifier(String, String, boolean, BencodeIO)
 	 */
-	public BencodeStringifier(StringBuilder str, String prefix, String indent, boolean dumpStrings, BencodeIO io) {
+	public BencodeStringifier(Appendable str, String prefix, String indent, boolean dumpStrings, BencodeIO io) {
 		this.str = str;
 		this.prefix = prefix;
 		this.indent = indent;
@@ -27,10 +44,19 @@ public class BencodeStringifier implements BencodeVisitor {
 		this.io = io;
 	}
 	
+	/**
+	 * Setup of a Bencode object structure to String converstion.
+	 * @param str A {@link StringBuilder} to which the representations of the processed objects will be appended.
+	 * @see BencodeStringifier#BencodeStringifier(String, String, boolean, BencodeIO)
+	 */
+	public BencodeStringifier(StringBuilder str, String prefix, String indent, boolean dumpStrings, BencodeIO io) {
+		this((Appendable)str, prefix, indent, dumpStrings, io);
+	}
+	
 	/**
 	 * Setup of a Bencode object structure to String conversion.
 	 * @param prefix String added once at the beginning of each line.
-	 * @param indent String added to the beginning of each line again for every recursion.
+	 * @param indent String added to the beginning of each line again for every level of nesting.
 	 * @param dumpStrings Output hex-dumps for string-objects.
 	 * @param io Optional reference to a reader or writer to determine the byte offsets of each object in the buffer it was read from or written to.
 	 */
@@ -38,25 +64,169 @@ public class BencodeStringifier implements BencodeVisitor {
 		this(new StringBuilder(), prefix, indent, dumpStrings, io);
 	}
 	
+	/**
+	 * Limits the hex-dump of each string, longer strings are cut off with a note on the number of bytes omitted.
+	 * @param maxStringBytes Maximum number of bytes dumped per string, unlimited by default.
+	 * @return This Stringifier.
+	 */
+	public BencodeStringifier setMaxStringBytes(int maxStringBytes) {
+		if (maxStringBytes < 0) throw new IllegalArgumentException("Limit must not be negative.");
+		this.maxStringBytes = maxStringBytes;
+		return this;
+	}
+	
+	/**
+	 * Limits the nesting depth shown, the elements of deeper lists and dictionaries are omitted with a note on their number.
+	 * @param maxDepth Maximum number of nested lists and dictionaries whose elements are shown, unlimited by default.
+	 * @return This Stringifier.
+	 */
+	public BencodeStringifier setMaxDepth(int maxDepth) {
+		if (maxDepth < 0) throw new IllegalArgumentException("Limit must not be negative.");
+		this.maxDepth = maxDepth;
+		return this;
+	}
+	
+	/**
+	 * Limits the elements shown per list or dictionary, further ones are omitted with a note on their number.
+	 * @param maxElements Maximum number of elements or entries shown, unlimited by default.
+	 * @return This Stringifier.
+	 */
+	public BencodeStringifier setMaxElements(int maxElements) {
+		if (maxElements < 0) throw new IllegalArgumentException("Limit must not be negative.");
+		this.maxElements = maxElements;
+		return this;
+	}
+	
+	/**
+	 * Limits the total output, which is cut off with an ellipsis once the limit is reached.
+	 * No further output is generated afterwards, the limit applies to all objects processed by this Stringifier.
+	 * @param maxOutput Maximum number of characters, unlimited by default.
+	 * @return This Stringifier.
+	 */
+	public BencodeStringifier setMaxOutput(long maxOutput) {
+		if (maxOutput < 0) throw new IllegalArgumentException("Limit must not be negative.");
+		this.maxOutput = maxOutput;
+		return this;
+	}
+	
+	/**
+	 * Determines whether the output has been cut off because of the limit on the total output.
+	 * @return Whether output has been omitted.
+	 * @see #setMaxOutput(long)
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+	
 	/**
 	 * Retrieves the String representations of the Bencode objects this Stringifyer has visited.
-	 * @return Total result generated by this Stringifier.
+	 * @return Total result generated by this Stringifier, if it writes to a {@link StringBuilder}.
 	 */
 	@Override
 	public String toString() {
 		return str.toString();
 	}
 	
-	private BencodeStringifier descend() {
-		return new BencodeStringifier(str, prefix + indent, indent, dumpStrings, io);
+	private void out(CharSequence s) {
+		out(s, 0, s.length());
+	}
+	
+	private void out(CharSequence s, int start, int end) {
+		if (truncated) return;
+		if (end - start > maxOutput - written) {
+			end = start + (int)(maxOutput - written);
+			truncated = true;
+		}
+		try {
+			str.append(s, start, end);
+			if (truncated) str.append(ELLIPSIS);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		written += end - start;
+	}
+	
+	private void out(char[] chars, int length) {
+		if (truncated) return;
+		if (length > maxOutput - written) {
+			length = (int)(maxOutput - written);
+			truncated = true;
+		}
+		try {
+			if (str instanceof StringBuilder) ((StringBuilder)str).append(chars, 0, length);
+			else if (str instanceof Writer) ((Writer)str).write(chars, 0, length);
+			else str.append(CharBuffer.wrap(chars, 0, length));
+			if (truncated) str.append(ELLIPSIS);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		written += length;
+	}
+	
+	// remaining entries of the lists and dictionaries being converted, innermost last
+	private final ArrayList<Iterator<?>> stack = new ArrayList<>();
+	// number of entries not yet shown and number of entries still to be shown for each level
+	private int[] left = new int[8], quota = new int[8];
+	private final ArrayList<String> linePrefixes = new ArrayList<>();
+	private boolean draining = false;
+	
+	private void descend(Iterator<?> entries, int count) throws BencodeException {
+		int level = stack.size();
+		if (level == left.length) {
+			left = Arrays.copyOf(left, level * 2);
+			quota = Arrays.copyOf(quota, level * 2);
+		}
+		left[level] = count;
+		quota[level] = level < maxDepth ? maxElements : 0;
+		stack.add(entries);
+		if (draining) return;
+		draining = true;
+		try {
+			while (!stack.isEmpty() && !truncated) {
+				level = stack.size();
+				Iterator<?> it = stack.get(level - 1);
+				if (left[level - 1] == 0 || !it.hasNext()) {
+					stack.remove(level - 1);
+					continue;
+				}
+				out("\n");
+				out(linePrefix(level));
+				if (quota[level - 1] == 0) {
+					out(ELLIPSIS + left[level - 1] + " more elements");
+					stack.remove(level - 1);
+					continue;
+				}
+				quota[level - 1]--;
+				left[level - 1]--;
+				Object next = it.next();
+				if (next instanceof Map.Entry) {
+					Map.Entry<?, ?> e = (Map.Entry<?, ?>)next;
+					out("[");
+					out(String.valueOf(e.getKey()));
+					out("]: ");
+					next = e.getValue();
+				}
+				((BencodeObject)next).accept(this);
+			}
+		} finally {
+			stack.clear();
+			draining = false;
+		}
+	}
+	
+	private String linePrefix(int level) {
+		while (linePrefixes.size() <= level) {
+			int n = linePrefixes.size();
+			linePrefixes.add(n == 0 ? prefix : linePrefixes.get(n - 1) + indent);
+		}
+		return linePrefixes.get(level);
 	}
 	
-	private void printPos(StringBuilder str, BencodeObject obj) {
+	private void printPos(BencodeObject obj) {
 		if (io != null) {
 			BencodeIO.Range pos = io.getPosition(obj);
 			if (pos != null) {
-				str.append(" @").append(pos.getStart())
-					.append("-").append(pos.getEnd());	
+				out(" @" + pos.getStartOffset() + "-" + pos.getEndOffset());
 			}
 		}
 	}
@@ -77,49 +247,62 @@ public class BencodeStringifier implements BencodeVisitor {
 	
 	@Override
 	public void visit(BencodeInteger obj) throws BencodeException {
-		str.append("Integer(").append(obj.getValue()).append(")");
-		printPos(str, obj);
+		out("Integer(" + obj.getValue() + ")");
+		printPos(obj);
 	}
 	
 	@Override
 	public void visit(BencodeString obj) throws BencodeException {
-		byte[] data = obj.getData();
-		str.append("String(").append(data.length).append(")");
-		printPos(str, obj);
-		if (dumpStrings) str.append("\n").append(bytesToString(prefix + indent, data, data.length % 20 == 0 ? 20 : 16));
+		int length = obj.getLength();
+		out("String(" + length + ")");
+		printPos(obj);
+		if (dumpStrings) {
+			out("\n");
+			dump(linePrefix(stack.size() + 1), obj, length % 20 == 0 ? 20 : 16);
+		}
 	}
 	
 	@Override
 	public void visit(BencodeList list) throws BencodeException {
-		str.append("List(").append(list.getCount()).append(")");
-		printPos(str, list);
-		for (BencodeObject entry : list) {
-			str.append('\n').append(prefix).append(indent);
-			entry.accept(descend());
-		}
+		out("List(" + list.getCount() + ")");
+		printPos(list);
+		descend(list.iterator(), list.getCount());
 	}
 	
 	@Override
 	public void visit(BencodeDictionary dict) throws BencodeException {
-		str.append("Dictionary(").append(dict.getCount()).append(")");
-		printPos(str, dict);
-		for (Map.Entry<String, BencodeObject> e : dict.getEntries()) {
-			str.append('\n').append(prefix).append(indent).append("[").append(e.getKey()).append("]: ");
-			e.getValue().accept(descend());
-		}
+		out("Dictionary(" + dict.getCount() + ")");
+		printPos(dict);
+		descend(dict.entryIterator(), dict.getCount());
 	}
 	
-	private static String bytesToString(String prefix, byte[] b, int wrap) {
-		StringBuilder sb = new StringBuilder();
-		sb.append(prefix);
-		for (int n = 0; n < b.length; n++) {
-			if (wrap > 0 && n > 0 && (n % wrap) == 0) {
-				sb.append('\n');
-				sb.append(prefix);
+	private byte[] bytes;
+	private char[] chars;
+	
+	/**
+	 * Outputs the hex-dump of a string line by line, up to the limit per string.
+	 */
+	private void dump(String prefix, BencodeString obj, int wrap) {
+		int length = obj.getLength(), shown = Math.min(length, maxStringBytes);
+		if (bytes == null || bytes.length < wrap) {
+			bytes = new byte[wrap];
+			chars = new char[wrap * 2];
+		}
+		out(prefix);
+		for (int n = 0; n < shown && !truncated; n += wrap) {
+			if (n > 0) {
+				out("\n");
+				out(prefix);
+			}
+			int count = Math.min(wrap, shown - n);
+			obj.copyTo(n, bytes, 0, count);
+			for (int i = 0; i < count; i++) {
+				chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+				chars[2 * i + 1] = HEX[bytes[i] & 0xF];
 			}
-			sb.append(String.format("%02X", b[n]));
+			out(chars, count * 2);
 		}
-		return sb.toString();
+		if (shown < length) out(ELLIPSIS + (length - shown) + " more bytes");
 	}
 
 }
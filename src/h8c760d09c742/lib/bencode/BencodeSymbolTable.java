@@ -0,0 +1,166 @@
+package h8c760d09c742.lib.bencode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of canonical instances for short strings and dictionary keys which recur across documents.
+ * Readers using a symbol table (see {@link BencodeReader#setSymbolTable(BencodeSymbolTable)}) return
+ * the cached string-objects and keys instead of allocating new ones.<br>
+ * The table has a fixed number of slots, an entry is replaced if another string maps to its slot.
+ * It may be shared by any number of readers in different threads.<br>
+ * The cached string-objects are shared by all documents read with the table, so their content must not be modified.
+ */
+public final class BencodeSymbolTable {
+
+	/**
+	 * Maximum length of strings cached by default.
+	 */
+	public static final int DEFAULT_MAX_LENGTH = 32;
+
+	/**
+	 * Cached string in its different representations.
+	 */
+	static final class Symbol {
+		final byte[] bytes;
+		final int hash;
+		final BencodeString string;
+		final String text;
+		final BencodeKey key;
+
+		Symbol(byte[] bytes, int hash) {
+			this.bytes = bytes;
+			this.hash = hash;
+			this.string = new BencodeString(bytes);
+			this.text = new String(bytes, StandardCharsets.UTF_8);
+			this.key = new BencodeKey(bytes, text);
+		}
+
+		boolean matches(byte[] data, int offset, int length, int hash) {
+			if (this.hash != hash || bytes.length != length) return false;
+			for (int n = 0; n < length; n++) {
+				if (bytes[n] != data[offset + n]) return false;
+			}
+			return true;
+		}
+	}
+
+	private final AtomicReferenceArray<Symbol> slots;
+	private final int mask, maxLength;
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	/**
+	 * Creates a symbol table for strings of up to {@link #DEFAULT_MAX_LENGTH} bytes.
+	 * @param capacity The number of slots, rounded up to a power of two.
+	 */
+	public BencodeSymbolTable(int capacity) {
+		this(capacity, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * Creates a symbol table.
+	 * @param capacity The number of slots, rounded up to a power of two.
+	 * @param maxLength Maximum length of strings to be cached, longer strings are always read normally.
+	 */
+	public BencodeSymbolTable(int capacity, int maxLength) {
+		if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Capacity out of range.");
+		if (maxLength < 0) throw new IllegalArgumentException("Maximum length must not be negative.");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Looks up the cached instance for a string, adding it if it is not present.
+	 * @param data Array holding the string.
+	 * @param offset Index of the first byte of the string.
+	 * @param length Length of the string, at most {@link #getMaxLength()}.
+	 * @return The cached instance.
+	 */
+	Symbol lookup(byte[] data, int offset, int length) {
+		int hash = 1;
+		for (int n = 0; n < length; n++) hash = 31 * hash + data[offset + n];
+		int slot = (hash ^ hash >>> 16) & mask;
+		// besides its own slot a string may occupy the adjacent one, so two frequent strings mapping to the same slot don't evict each other
+		Symbol s = slots.get(slot);
+		if (s != null && s.matches(data, offset, length, hash)) {
+			hits.increment();
+			return s;
+		}
+		int alt = (slot + 1) & mask;
+		Symbol t = slots.get(alt);
+		if (t != null && t.matches(data, offset, length, hash)) {
+			hits.increment();
+			return t;
+		}
+		misses.increment();
+		Symbol added = new Symbol(Arrays.copyOfRange(data, offset, offset + length), hash);
+		slots.lazySet(s == null || t != null ? slot : alt, added);
+		return added;
+	}
+
+	/**
+	 * Gets the cached string-object for a string.
+	 * @param data Array holding the string.
+	 * @param offset Index of the first byte of the string.
+	 * @param length Length of the string.
+	 * @return The cached string-object or a new one if the string is too long to be cached.
+	 */
+	public BencodeString getString(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > data.length - length) throw new IndexOutOfBoundsException();
+		if (length > maxLength) return new BencodeString(Arrays.copyOfRange(data, offset, offset + length));
+		return lookup(data, offset, length).string;
+	}
+
+	/**
+	 * Gets the maximum length of strings which are cached.
+	 * @return The maximum length in bytes.
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Gets the number of slots.
+	 * @return The capacity of the table.
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Gets the number of lookups which found a cached instance.
+	 * @return The number of hits since creation or the last reset.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of lookups which had to add a new instance.
+	 * @return The number of misses since creation or the last reset.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public void resetStatistics() {
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Removes all cached instances.
+	 */
+	public void clear() {
+		for (int n = 0; n <= mask; n++) slots.lazySet(n, null);
+	}
+
+}
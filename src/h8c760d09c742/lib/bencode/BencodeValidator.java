@@ -0,0 +1,348 @@
+package h8c760d09c742.lib.bencode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Validation of Bencoded documents in byte arrays and buffers without creating any objects.
+ * Besides checking that the input is well-formed the same way as {@link BencodeReader}, the validator determines whether it is in canonical form:
+ * dictionary keys sorted and unique, numbers without leading zeros or negative zero, and no bytes following the document.<br>
+ * The verdict of the last validation is available from the validator, which can be reused for any number of documents
+ * but must not be used by multiple threads at the same time.
+ * Memory is only allocated when a document is nested deeper than any document validated before.
+ */
+public final class BencodeValidator {
+
+	/**
+	 * Overall result of a validation.
+	 */
+	public enum Status {
+		/** Well-formed and in canonical form. */
+		CANONICAL,
+		/** Well-formed but not in canonical form, i.e. accepted by readers but encoded differently by writers. */
+		NON_CANONICAL,
+		/** Malformed, rejected by readers. */
+		INVALID
+	}
+
+	/**
+	 * Kinds of deviations from canonical, well-formed input.
+	 */
+	public enum Violation {
+		/** The input ends within the document. */
+		END_OF_INPUT(true),
+		/** A number is malformed or exceeds the range of {@code long}. */
+		MALFORMED_NUMBER(true),
+		/** A byte which does not start any value. */
+		UNKNOWN_TOKEN(true),
+		/** A dictionary key which is not a string. */
+		ILLEGAL_KEY(true),
+		/** A dictionary ends after a key. */
+		MISSING_VALUE(true),
+		/** Lists and dictionaries are nested deeper than allowed. */
+		DEPTH_EXCEEDED(true),
+		/** A number has superfluous leading zeros. */
+		LEADING_ZERO(false),
+		/** An integer is written as {@code -0}. */
+		NEGATIVE_ZERO(false),
+		/** Dictionary keys are not in ascending order of their bytes. */
+		UNSORTED_KEYS(false),
+		/** A dictionary key occurs more than once. */
+		DUPLICATE_KEY(false),
+		/** The input continues after the document. */
+		TRAILING_BYTES(false);
+
+		private final boolean invalid;
+
+		Violation(boolean invalid) {
+			this.invalid = invalid;
+		}
+
+		/**
+		 * Determines whether the violation makes the input malformed rather than just non-canonical.
+		 * @return {@code true} if readers reject such input.
+		 */
+		public boolean isInvalid() {
+			return invalid;
+		}
+	}
+
+	private byte[] array;
+	private ByteBuffer buffer;
+	private int base;
+	private long nesting;
+	private long[] deepNesting;
+	private int[] keyStarts = new int[64], keyEnds = new int[64];
+	private int maxDepth = BencodeReader.DEFAULT_MAX_DEPTH;
+
+	private Status status;
+	private Violation violation;
+	private int violationOffset, depth;
+	private long integers, strings, lists, dictionaries;
+
+	/**
+	 * Gets the maximum nesting depth of lists and dictionaries accepted.
+	 * @return The maximum number of nested lists and dictionaries.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Limits the nesting depth of lists and dictionaries, deeper documents are considered invalid.
+	 * @param maxDepth The maximum number of nested lists and dictionaries, {@link BencodeReader#DEFAULT_MAX_DEPTH} by default.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) throw new IllegalArgumentException("Maximum depth must be positive.");
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Validates a document in an array.
+	 * @param data The array holding exactly one document.
+	 * @return The status of the document.
+	 */
+	public Status validate(byte[] data) {
+		return validate(data, 0, data.length);
+	}
+
+	/**
+	 * Validates a document in a region of an array.
+	 * @param data The array.
+	 * @param offset Index of the first byte of the document.
+	 * @param length Length of the region, which should hold exactly one document.
+	 * @return The status of the document.
+	 */
+	public Status validate(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > data.length - length) throw new IndexOutOfBoundsException();
+		array = data;
+		buffer = null;
+		try {
+			return run(offset, offset + length);
+		} finally {
+			array = null;
+		}
+	}
+
+	/**
+	 * Validates a document in a buffer, heap buffers are accessed by index in their backing array, direct buffers by absolute access.
+	 * @param buf The buffer holding exactly one document between its position and limit, which are not changed.
+	 * @return The status of the document.
+	 */
+	public Status validate(ByteBuffer buf) {
+		if (buf.hasArray()) return validate(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		array = null;
+		buffer = buf;
+		try {
+			return run(buf.position(), buf.limit());
+		} finally {
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Gets the status determined by the last validation.
+	 * @return The status or {@code null} if nothing has been validated yet.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets the violation which determined the status of the last validation:
+	 * the error of invalid input, otherwise the first deviation from canonical form.
+	 * @return The violation or {@code null} if the document is canonical.
+	 */
+	public Violation getViolation() {
+		return violation;
+	}
+
+	/**
+	 * Gets the position of the violation returned by {@link #getViolation()}.
+	 * @return Offset from the start of the document of the value (or the byte) in violation, {@code -1} if the document is canonical.
+	 */
+	public int getViolationOffset() {
+		return violationOffset;
+	}
+
+	/**
+	 * Gets the maximum nesting depth found by the last validation.
+	 * @return The maximum number of nested lists and dictionaries, up to the point where invalid input was found.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the number of integers found by the last validation.
+	 * @return The number of integer-values, up to the point where invalid input was found.
+	 */
+	public long getIntegerCount() {
+		return integers;
+	}
+
+	/**
+	 * Gets the number of strings found by the last validation.
+	 * @return The number of string-values including dictionary keys, up to the point where invalid input was found.
+	 */
+	public long getStringCount() {
+		return strings;
+	}
+
+	/**
+	 * Gets the number of lists found by the last validation.
+	 * @return The number of list-values, up to the point where invalid input was found.
+	 */
+	public long getListCount() {
+		return lists;
+	}
+
+	/**
+	 * Gets the number of dictionaries found by the last validation.
+	 * @return The number of dictionary-values, up to the point where invalid input was found.
+	 */
+	public long getDictionaryCount() {
+		return dictionaries;
+	}
+
+	private byte get(int index) {
+		return array != null ? array[index] : buffer.get(index);
+	}
+
+	private void push(int level, boolean dict) {
+		int bit = level & 63;
+		if (level < 64) {
+			nesting = dict ? nesting | 1L << bit : nesting & ~(1L << bit);
+			return;
+		}
+		int n = (level >> 6) - 1;
+		if (deepNesting == null) deepNesting = new long[4];
+		if (n >= deepNesting.length) deepNesting = Arrays.copyOf(deepNesting, n * 2);
+		deepNesting[n] = dict ? deepNesting[n] | 1L << bit : deepNesting[n] & ~(1L << bit);
+	}
+
+	private boolean isDict(int level) {
+		return ((level < 64 ? nesting : deepNesting[(level >> 6) - 1]) & 1L << (level & 63)) != 0;
+	}
+
+	/**
+	 * Records a deviation from canonical form unless an earlier one has been found.
+	 */
+	private void deviation(Violation v, int index) {
+		if (violation == null) {
+			violation = v;
+			violationOffset = index - base;
+			status = Status.NON_CANONICAL;
+		}
+	}
+
+	private Status fail(Violation v, int index) {
+		violation = v;
+		violationOffset = index - base;
+		return status = Status.INVALID;
+	}
+
+	/**
+	 * Compares two byte strings in the input, as unsigned bytes.
+	 */
+	private int compare(int start1, int end1, int start2, int end2) {
+		for (; start1 < end1 && start2 < end2; start1++, start2++) {
+			int c = (get(start1) & 0xFF) - (get(start2) & 0xFF);
+			if (c != 0) return c;
+		}
+		return (end1 - start1) - (end2 - start2);
+	}
+
+	private Status run(int start, int end) {
+		base = start;
+		status = Status.CANONICAL;
+		violation = null;
+		violationOffset = -1;
+		depth = 0;
+		integers = strings = lists = dictionaries = 0;
+
+		int p = start, level = 0;
+		boolean expectKey = false;
+		do {
+			if (p >= end) return fail(Violation.END_OF_INPUT, p);
+			int token = p;
+			byte chr = get(p);
+			if (chr == 'e' && level > 0) {
+				if (!expectKey && isDict(level)) return fail(Violation.MISSING_VALUE, p);
+				p++;
+				level--;
+				expectKey = level > 0 && isDict(level);
+				continue;
+			}
+			if (expectKey && !(chr >= 0x30 && chr < 0x3A)) return fail(Violation.ILLEGAL_KEY, p);
+			if (chr == 'i') {
+				boolean negative = false;
+				if (++p < end && get(p) == '-') {
+					negative = true;
+					p++;
+				}
+				int digits = p;
+				long value = 0;
+				// accumulated as negative value to cover the full range of long, as by the readers
+				for (; p < end && (chr = get(p)) >= 0x30 && chr < 0x3A; p++) value = BencodeReader.appendDigit(value, chr - 0x30, negative);
+				if (p >= end) return fail(Violation.END_OF_INPUT, p);
+				if (chr != 'e' || p == digits || value == BencodeReader.OUT_OF_RANGE) return fail(Violation.MALFORMED_NUMBER, p);
+				if (negative && value == 0) deviation(Violation.NEGATIVE_ZERO, token);
+				else if (p - digits > 1 && get(digits) == '0') deviation(Violation.LEADING_ZERO, token);
+				p++;
+				integers++;
+			} else if (chr == 'l' || chr == 'd') {
+				if (level >= maxDepth) return fail(Violation.DEPTH_EXCEEDED, p);
+				push(++level, chr == 'd');
+				if (level > depth) depth = level;
+				if (chr == 'd') {
+					if (level >= keyEnds.length) {
+						keyStarts = Arrays.copyOf(keyStarts, level * 2);
+						keyEnds = Arrays.copyOf(keyEnds, level * 2);
+					}
+					keyEnds[level] = -1;
+					dictionaries++;
+				} else {
+					lists++;
+				}
+				p++;
+				expectKey = chr == 'd';
+				continue;
+			} else if (chr >= 0x30 && chr < 0x3A) {
+				long length = 0;
+				for (; p < end && (chr = get(p)) >= 0x30 && chr < 0x3A; p++) {
+					length = length * 10 + chr - 0x30;
+					if (length > Integer.MAX_VALUE) return fail(Violation.MALFORMED_NUMBER, p);
+				}
+				if (p >= end) return fail(Violation.END_OF_INPUT, p);
+				if (chr != ':') return fail(Violation.MALFORMED_NUMBER, p);
+				if (p - token > 1 && get(token) == '0') deviation(Violation.LEADING_ZERO, token);
+				p++;
+				if (length > end - p) return fail(Violation.END_OF_INPUT, end);
+				if (expectKey) {
+					int keyEnd = p + (int)length;
+					if (keyEnds[level] >= 0) {
+						int c = compare(keyStarts[level], keyEnds[level], p, keyEnd);
+						if (c == 0) deviation(Violation.DUPLICATE_KEY, token);
+						else if (c > 0) deviation(Violation.UNSORTED_KEYS, token);
+					}
+					keyStarts[level] = p;
+					keyEnds[level] = keyEnd;
+					p = keyEnd;
+					strings++;
+					expectKey = false;
+					continue;
+				}
+				p += (int)length;
+				strings++;
+			} else {
+				return fail(Violation.UNKNOWN_TOKEN, p);
+			}
+			expectKey = level > 0 && isDict(level);
+		} while (level > 0);
+
+		if (p < end) deviation(Violation.TRAILING_BYTES, p);
+		return status;
+	}
+
+}
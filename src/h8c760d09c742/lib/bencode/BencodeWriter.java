@@ -1,7 +1,15 @@
 package h8c760d09c742.lib.bencode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Serialization of Bencode objects.
@@ -11,81 +19,720 @@ public abstract class BencodeWriter extends BencodeIO {
 	protected abstract void write(byte data) throws IOException;
 	protected abstract void write(byte[] data) throws IOException;
 	
+	/**
+	 * Writes a region of an array.
+	 * Implementations should override this function to avoid copying the region.
+	 * @param data Array holding the data.
+	 * @param offset Index of the first byte to write.
+	 * @param length Number of bytes to write.
+	 * @throws IOException If a write error occurs.
+	 */
+	protected void write(byte[] data, int offset, int length) throws IOException {
+		write(offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length));
+	}
+	
+	/**
+	 * Writes the remaining content of a buffer.
+	 * Implementations may override this function to transfer the content directly.
+	 * @param data The buffer to write, its position is advanced to its limit.
+	 * @throws IOException If a write error occurs.
+	 */
+	protected void write(ByteBuffer data) throws IOException {
+		if (data.hasArray()) {
+			write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+		} else {
+			byte[] chunk = new byte[Math.min(data.remaining(), 8192)];
+			while (data.hasRemaining()) {
+				int n = Math.min(data.remaining(), chunk.length);
+				data.get(chunk, 0, n);
+				write(chunk, 0, n);
+			}
+		}
+	}
+	
+	/**
+	 * Writes a payload which is passed on directly instead of being collected in the internal buffer,
+	 * i.e. a string or an encoded subtree at least as large as the internal buffer.
+	 * Unlike fragments passed to the other functions, the content remains valid until the current call to {@link #write(BencodeObject)} returns,
+	 * so implementations may keep a reference to the buffer up to that point instead of copying it.
+	 * @param data The buffer to write, its position is advanced to its limit.
+	 * @throws IOException If a write error occurs.
+	 */
+	protected void writePayload(ByteBuffer data) throws IOException {
+		write(data);
+	}
+	
+	/**
+	 * Passes fragments collected in the internal buffer to the output, when it is full, before a payload and at the end of an object.
+	 * By default the region is written by {@link #write(byte[], int, int)}, after which the whole buffer is reused.
+	 * Implementations may keep a reference to the region instead, e.g. to submit it along with payloads without copying it,
+	 * and have the following fragments collected behind it. Kept regions remain unchanged until the buffer is reused from its start,
+	 * which happens at the latest after the current call to {@link #write(BencodeObject)} returns.
+	 * @param chunk The internal buffer.
+	 * @param start Index of the first byte not passed on yet.
+	 * @param end Index following the last byte collected.
+	 * @param room The number of bytes which have to fit in the buffer behind the returned index.
+	 * @return Index from which to continue collecting fragments, {@code end} to keep the region or 0 to reuse the whole buffer.
+	 * @throws IOException If a write error occurs.
+	 */
+	protected int writeChunk(byte[] chunk, int start, int end, int room) throws IOException {
+		if (end > start) write(chunk, start, end - start);
+		return 0;
+	}
+	
+	/**
+	 * Gets the minimum length of strings passed to {@link #writePayload(ByteBuffer)} rather than collected with the other output.
+	 * Implementations collecting the output in a buffer of their own may lower it to the size of that buffer.
+	 * @return The number of bytes, values above the size of the internal buffer have no effect.
+	 */
+	protected int getPayloadThreshold() {
+		return CHUNK_SIZE;
+	}
+	
+	/**
+	 * Size of the internal buffer in which small fragments are collected before they are passed to the output, unless specified otherwise.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+	
+	/**
+	 * Transports an I/O error through the visitor functions.
+	 */
+	private static final class WriteFailure extends BencodeException {
+		private static final long serialVersionUID = 1L;
+		
+		WriteFailure(IOException cause) {
+			super(cause);
+		}
+	}
+	
 	private class Serializer implements BencodeVisitor {
 		
-		private void writeObject(BencodeObject obj) throws BencodeException {
-			int posStart = getPosition();
-			obj.accept(this);
-			objRef.put(obj, new Range(posStart, getPosition()));
+		// lists and dictionaries being written along with their start positions,
+		// the remaining entries of dictionaries and the index of the next element of lists
+		private BencodeObject[] objects = new BencodeObject[8];
+		private Iterator<?>[] entries = new Iterator<?>[8];
+		private int[] next = new int[8];
+		private long[] starts = new long[8];
+		// keys of the values being written in the dictionaries, null in lists
+		private Object[] keys = new Object[8];
+		private int depth = 0;
+		// object being encoded for its own cache, which is not to be looked up
+		private BencodeObject uncached;
+		
+		// output collected from base on but not passed on yet
+		private final byte[] chunk;
+		private int base = 0, fill = 0;
+		
+		Serializer(int chunkSize) {
+			this.chunk = new byte[chunkSize];
 		}
 		
-		private void writeString(byte[] str) throws IOException {
-			write((str.length + ":").getBytes());
-			write(str);
+		private long position() {
+			return getOffset() + fill - base;
+		}
+		
+		private void writeObject(BencodeObject obj, boolean topLevel) throws IOException {
+			boolean digests = topLevel && hasDigests();
+			if (digests) clearDigests();
+			try {
+				for (;;) {
+					if (obj != null) {
+						long posStart = position();
+						int outer = depth;
+						if (digests && (depth == 0 || keys[depth - 1] != null)) beginDigests(keys, depth);
+						// subtrees are copied as a whole, also if hashes of their parts are to be computed
+						ByteBuffer encoded = obj == uncached ? null : obj.encoded();
+						if (encoded == null) obj.accept(this);
+						else if (digests && digestsWithin(keys, depth)) putDigested(obj, encoded);
+						else put(encoded);
+						if (depth == outer) {
+							track(obj, posStart, position(), topLevel && depth == 0);
+							if (isDigesting()) endDigests(obj, depth);
+						}
+					}
+					if (depth == 0) break;
+					
+					BencodeObject parent = objects[depth - 1];
+					Iterator<?> it = entries[depth - 1];
+					if (it != null ? it.hasNext() : next[depth - 1] < parent.getCount()) {
+						if (it != null) {
+							Map.Entry<?, ?> entry = (Map.Entry<?, ?>)it.next();
+							writeKey(entry.getKey());
+							keys[depth - 1] = entry.getKey();
+							obj = (BencodeObject)entry.getValue();
+						} else {
+							obj = parent.get(next[depth - 1]++);
+						}
+					} else {
+						put((byte)'e');
+						depth--;
+						objects[depth] = null;
+						entries[depth] = null;
+						keys[depth] = null;
+						track(parent, starts[depth], position(), topLevel && depth == 0);
+						if (isDigesting()) endDigests(parent, depth);
+						obj = null;
+					}
+				}
+				if (topLevel) flush();
+			} catch (WriteFailure e) {
+				throw (IOException)e.getCause();
+			} finally {
+				for (; depth > 0; depth--) {
+					objects[depth - 1] = null;
+					entries[depth - 1] = null;
+					keys[depth - 1] = null;
+				}
+				// output of embedded objects is completed by the caller
+				if (topLevel) base = fill = 0;
+				if (isDigesting()) clearDigests();
+			}
+		}
+		
+		/**
+		 * Writes the encoded form of a subtree containing values to be hashed, which are located by scanning the encoded bytes.
+		 * The values are hashed as encoded, so neither the output nor the hashes depend on the digests registered.
+		 */
+		private void putDigested(BencodeObject obj, ByteBuffer encoded) throws IOException {
+			List<BencodeDigest> within = getDigestsWithin(keys, depth);
+			int count = within.size();
+			BencodeObject[] values = new BencodeObject[count];
+			int[] from = new int[count], to = new int[count];
+			// 0 before the value, 1 while hashing it, 2 afterwards or if the path does not exist
+			int[] state = new int[count];
+			for (int n = 0; n < count; n++) {
+				String[] path = within.get(n).getPath();
+				BencodeScanner scan = new BencodeScanner(encoded);
+				BencodeObject value = obj;
+				for (int k = depth; value != null && k < path.length; k++) value = seek(scan, value, path[k]);
+				if (value == null) {
+					state[n] = 2;
+					continue;
+				}
+				values[n] = value;
+				from[n] = scan.position();
+				scan.skipValue();
+				to[n] = scan.position();
+			}
+			
+			int pos = encoded.position();
+			for (;;) {
+				int next = -1, at = encoded.limit();
+				for (int n = 0; n < count; n++) {
+					if (state[n] == 2) continue;
+					int bound = state[n] == 0 ? from[n] : to[n];
+					// values ending are completed before values starting at the same position
+					if (bound < at || bound == at && state[n] == 1) {
+						next = n;
+						at = bound;
+					}
+				}
+				ByteBuffer part = encoded.duplicate();
+				part.limit(at).position(pos);
+				put(part);
+				pos = at;
+				if (next < 0) break;
+				if (state[next]++ == 0) beginDigest(within.get(next));
+				else endDigest(within.get(next), values[next]);
+			}
+		}
+		
+		/**
+		 * Moves a scanner from the start of an encoded dictionary to the value of a key.
+		 * @return The value or {@code null} if the object is not a dictionary or does not contain the key.
+		 */
+		private BencodeObject seek(BencodeScanner scan, BencodeObject dict, String key) throws IOException {
+			if (!dict.isDictionary()) return null;
+			BencodeObject value = dict.get(key);
+			if (value == null) return null;
+			scan.position(scan.position() + 1);
+			while (scan.byteAt(scan.position()) != 'e') {
+				if (scan.readString((int)scan.readNumber(false)).getString().equals(key)) return value;
+				scan.skipValue();
+			}
+			return null;
+		}
+		
+		private void push(BencodeObject obj, Iterator<?> it, long start) {
+			if (depth == objects.length) {
+				objects = Arrays.copyOf(objects, depth * 2);
+				entries = Arrays.copyOf(entries, depth * 2);
+				next = Arrays.copyOf(next, depth * 2);
+				starts = Arrays.copyOf(starts, depth * 2);
+				keys = Arrays.copyOf(keys, depth * 2);
+			}
+			objects[depth] = obj;
+			entries[depth] = it;
+			next[depth] = 0;
+			starts[depth++] = start;
+		}
+		
+		private void flush() throws IOException {
+			pass(0);
+		}
+		
+		/**
+		 * Passes the collected output on, see {@link BencodeWriter#writeChunk(byte[], int, int, int)}.
+		 */
+		private void pass(int room) throws IOException {
+			if (fill == base && room == 0) return;
+			int start = base, end = fill;
+			base = fill = writeChunk(chunk, start, end, room);
+		}
+		
+		private void reserve(int length) throws IOException {
+			if (chunk.length - fill < length) pass(length);
+		}
+		
+		private void collected(int start) {
+			if (isDigesting()) digest(chunk, start, fill - start);
+		}
+		
+		private void put(byte data) throws IOException {
+			reserve(1);
+			chunk[fill++] = data;
+			collected(fill - 1);
+		}
+		
+		private void put(byte[] data, int offset, int length) throws IOException {
+			if (length < chunk.length && length < getPayloadThreshold()) {
+				reserve(length);
+				System.arraycopy(data, offset, chunk, fill, length);
+				fill += length;
+				collected(fill - length);
+			} else {
+				flush();
+				if (isDigesting()) digest(data, offset, length);
+				writePayload(ByteBuffer.wrap(data, offset, length));
+			}
+		}
+		
+		private void put(ByteBuffer data) throws IOException {
+			int length = data.remaining();
+			if (length < chunk.length && length < getPayloadThreshold()) {
+				reserve(length);
+				data.get(chunk, fill, length);
+				fill += length;
+				collected(fill - length);
+			} else {
+				flush();
+				if (isDigesting()) digest(data.duplicate());
+				writePayload(data);
+			}
+		}
+		
+		/**
+		 * Formats a number in decimal, accumulating it as negative value to cover the full range of {@link Long}.
+		 */
+		private void putNumber(long value) {
+			if (value < 0) chunk[fill++] = '-';
+			else value = -value;
+			int digits = 1;
+			for (long v = value; v <= -10; v /= 10) digits++;
+			int end = fill + digits;
+			for (int n = end - 1; n >= fill; n--) {
+				chunk[n] = (byte)('0' - value % 10);
+				value /= 10;
+			}
+			fill = end;
+		}
+		
+		private void putLength(int length) throws IOException {
+			reserve(11);
+			int start = fill;
+			putNumber(length);
+			chunk[fill++] = ':';
+			collected(start);
+		}
+		
+		private void writeKey(Object key) throws IOException {
+			if (key instanceof BencodeKey) {
+				byte[] k = ((BencodeKey)key).bytes();
+				putLength(k.length);
+				put(k, 0, k.length);
+				return;
+			}
+			String str = (String)key;
+			int length = BencodeKey.utf8Length(str);
+			putLength(length);
+			if (length >= chunk.length) {
+				byte[] k = str.getBytes(StandardCharsets.UTF_8);
+				put(k, 0, k.length);
+				return;
+			}
+			reserve(length);
+			int start = fill;
+			putUtf8(str);
+			collected(start);
+		}
+		
+		private void putUtf8(String str) {
+			byte[] b = chunk;
+			int p = fill, length = str.length();
+			for (int n = 0; n < length; n++) {
+				char c = str.charAt(n);
+				if (c < 0x80) {
+					b[p++] = (byte)c;
+				} else if (c < 0x800) {
+					b[p++] = (byte)(0xC0 | c >> 6);
+					b[p++] = (byte)(0x80 | c & 0x3F);
+				} else if (Character.isHighSurrogate(c) && n + 1 < length && Character.isLowSurrogate(str.charAt(n + 1))) {
+					int cp = Character.toCodePoint(c, str.charAt(++n));
+					b[p++] = (byte)(0xF0 | cp >> 18);
+					b[p++] = (byte)(0x80 | cp >> 12 & 0x3F);
+					b[p++] = (byte)(0x80 | cp >> 6 & 0x3F);
+					b[p++] = (byte)(0x80 | cp & 0x3F);
+				} else if (Character.isSurrogate(c)) {
+					b[p++] = '?';
+				} else {
+					b[p++] = (byte)(0xE0 | c >> 12);
+					b[p++] = (byte)(0x80 | c >> 6 & 0x3F);
+					b[p++] = (byte)(0x80 | c & 0x3F);
+				}
+			}
+			fill = p;
+		}
+
+		private void putInteger(long value) throws IOException {
+			reserve(22);
+			int start = fill;
+			chunk[fill++] = 'i';
+			putNumber(value);
+			chunk[fill++] = 'e';
+			collected(start);
 		}
 
 		@Override
 		public void visit(BencodeInteger obj) throws BencodeException {
 			try {
-				write(("i" + obj.getValue() + "e").getBytes());
+				putInteger(obj.getValue());
 			} catch (IOException e) {
-				new BencodeException(e);
+				throw new WriteFailure(e);
 			}
 		}
 
 		@Override
 		public void visit(BencodeString str) throws BencodeException {
 			try {
-				writeString(str.getData());
+				putLength(str.length);
+				if (str.array != null) put(str.array, str.offset, str.length);
+				else put(str.getBuffer());
 			} catch (IOException e) {
-				new BencodeException(e);
+				throw new WriteFailure(e);
 			}
 		}
 
 		@Override
 		public void visit(BencodeList list) throws BencodeException {
+			long posStart = position();
 			try {
-				write((byte)'l');
-				for (BencodeObject entry : list) writeObject(entry);
-				write((byte)'e');
+				put((byte)'l');
+				if (splits(list)) {
+					int count = list.getCount();
+					BencodeObject[] values = new BencodeObject[count];
+					for (int n = 0; n < count; n++) values[n] = list.get(n);
+					writeParallel(null, values);
+					return;
+				}
 			} catch (IOException e) {
-				new BencodeException(e);
+				throw new WriteFailure(e);
 			}
+			push(list, null, posStart);
 		}
 
 		@Override
 		public void visit(BencodeDictionary dict) throws BencodeException {
+			long posStart = position();
 			try {
-				write((byte)'d');
-				for (Map.Entry<String, BencodeObject> entry : dict.getEntries()) {
-					writeString(entry.getKey().getBytes());
-					writeObject(entry.getValue());
+				put((byte)'d');
+				if (splits(dict)) {
+					int count = dict.getCount(), n = 0;
+					Object[] keys = new Object[count];
+					BencodeObject[] values = new BencodeObject[count];
+					for (Iterator<? extends Map.Entry<?, BencodeObject>> it = dict.entryIterator(); it.hasNext(); n++) {
+						Map.Entry<?, BencodeObject> e = it.next();
+						keys[n] = e.getKey();
+						values[n] = e.getValue();
+					}
+					writeParallel(keys, values);
+					return;
 				}
-				write((byte)'e');
 			} catch (IOException e) {
-				new BencodeException(e);
+				throw new WriteFailure(e);
+			}
+			push(dict, dict.entryIterator(), posStart);
+		}
+		
+		/**
+		 * Determines whether the elements of a list or dictionary are to be encoded in parallel.
+		 */
+		private boolean splits(BencodeObject obj) {
+			return parallel != null && obj.getCount() >= parallelThreshold && !hasDigests();
+		}
+		
+		/**
+		 * Encodes ranges of elements (or entries) of a list or dictionary on the fork-join pool and writes the results in order,
+		 * followed by the end of the list or dictionary.
+		 */
+		private void writeParallel(Object[] keys, BencodeObject[] values) throws IOException {
+			int count = values.length;
+			int step = Math.max(parallelThreshold / 4, (count + parallel.getParallelism() * 4 - 1) / (parallel.getParallelism() * 4));
+			List<ForkJoinTask<Encoder>> tasks = new ArrayList<>();
+			for (int from = 0; from < count; from += step) {
+				int start = from, end = (int)Math.min((long)from + step, count);
+				tasks.add(ForkJoinTask.adapt(() -> encodeRange(keys, values, start, end)));
+			}
+			try {
+				if (ForkJoinTask.getPool() == parallel) {
+					ForkJoinTask.invokeAll(tasks);
+				} else {
+					parallel.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+				}
+			} catch (RuntimeException e) {
+				// failures of the tasks arrive wrapped, possibly several times when rethrown in another thread
+				for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+					if (t instanceof IOException) throw (IOException)t;
+				}
+				throw e;
+			}
+			
+			for (ForkJoinTask<Encoder> task : tasks) {
+				Encoder enc = task.join();
+				long offset = position();
+				put(enc.out, 0, enc.pos);
+				if (getTracking() == Tracking.FULL) {
+					for (BencodeObject o : enc.getObjects()) {
+						Range r = enc.getPosition(o);
+						track(o, offset + r.getStartOffset(), offset + r.getEndOffset(), false);
+					}
+				}
 			}
+			put((byte)'e');
+		}
+		
+		/**
+		 * Writes a dictionary key and its value or a list element.
+		 */
+		private void writeMember(Object key, BencodeObject value) throws IOException {
+			if (key != null) writeKey(key);
+			writeObject(value, true);
 		}
 		
 	}
 	
-	private Serializer serializer = new Serializer();
+	private final Serializer serializer;
+	
+	/**
+	 * Creates a writer collecting small fragments in an internal buffer of the default size.
+	 */
+	protected BencodeWriter() {
+		this(CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a writer collecting small fragments in an internal buffer of the specified size, see {@link #writeChunk(byte[], int, int, int)}.
+	 * @param chunkSize Size of the buffer in bytes, at least 64.
+	 */
+	protected BencodeWriter(int chunkSize) {
+		if (chunkSize < 64) throw new IllegalArgumentException("Chunk size must be at least 64 bytes.");
+		this.serializer = new Serializer(chunkSize);
+	}
+	
+	/**
+	 * Minimum number of elements of lists and dictionaries encoded in parallel by default.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+	
+	private ForkJoinPool parallel;
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	
+	/**
+	 * Gets the pool on which large lists and dictionaries are encoded.
+	 * @return The pool or {@code null} if objects are encoded sequentially.
+	 */
+	public ForkJoinPool getParallel() {
+		return parallel;
+	}
+	
+	/**
+	 * Enables parallel encoding of large lists and dictionaries.
+	 * Their elements are split into ranges, which are encoded into separate buffers on the pool and written in order,
+	 * so the output is identical to sequential encoding. Nested lists and dictionaries are split as well if they are large enough.
+	 * Objects are encoded sequentially while hashes are computed (see {@link #addDigest(String, String...)}).
+	 * The objects must not be modified while they are written.
+	 * @param pool The pool to use, e.g. {@link ForkJoinPool#commonPool()}, or {@code null} to encode sequentially (default).
+	 */
+	public void setParallel(ForkJoinPool pool) {
+		this.parallel = pool;
+	}
+	
+	/**
+	 * Gets the minimum number of elements of lists and dictionaries encoded in parallel.
+	 * @return The number of elements or entries.
+	 */
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	/**
+	 * Sets the minimum number of elements of lists and dictionaries encoded in parallel.
+	 * @param threshold The number of elements or entries, {@link #DEFAULT_PARALLEL_THRESHOLD} by default.
+	 */
+	public void setParallelThreshold(int threshold) {
+		if (threshold < 2) throw new IllegalArgumentException("Threshold must be at least 2.");
+		this.parallelThreshold = threshold;
+	}
+	
+	/**
+	 * Encodes a range of elements (or entries) of a list or dictionary, with the settings of this writer.
+	 */
+	private Encoder encodeRange(Object[] keys, BencodeObject[] values, int from, int to) throws IOException {
+		Encoder enc = new Encoder(4096);
+		BencodeWriter wr = enc;
+		wr.setTracking(getTracking() == Tracking.FULL ? Tracking.FULL : Tracking.NONE);
+		wr.parallel = parallel;
+		wr.parallelThreshold = parallelThreshold;
+		for (int n = from; n < to; n++) wr.serializer.writeMember(keys == null ? null : keys[n], values[n]);
+		return enc;
+	}
+	
+	/**
+	 * Makes room for appending to an array, which at least doubles in size if it has to be reallocated.
+	 * @param data The array.
+	 * @param used The number of bytes used in the array.
+	 * @param length The number of bytes to be appended.
+	 * @return The array itself if it has enough room left, otherwise a larger copy.
+	 * @throws IllegalStateException If the required size exceeds the maximum array size.
+	 */
+	protected static byte[] grow(byte[] data, int used, int length) {
+		if (data.length - used >= length) return data;
+		if ((long)used + length > Integer.MAX_VALUE - 8) throw new IllegalStateException("Maximum array size exceeded");
+		return Arrays.copyOf(data, (int)Math.min(Math.max((long)used + length, data.length * 2L), Integer.MAX_VALUE - 8));
+	}
+	
+	/**
+	 * Writer filling an array in memory, which is allocated in the exact size of the output if it is known in advance.
+	 */
+	private static final class Encoder extends BencodeWriter {
+		private byte[] out;
+		private int pos;
+		
+		Encoder(int length) {
+			this.out = new byte[length];
+			setTracking(Tracking.NONE);
+		}
+		
+		@Override
+		public int getPosition() {
+			return pos;
+		}
+		
+		@Override
+		protected void write(byte data) throws IOException {
+			out = grow(out, pos, 1);
+			out[pos++] = data;
+		}
+		
+		@Override
+		protected void write(byte[] data) throws IOException {
+			write(data, 0, data.length);
+		}
+		
+		@Override
+		protected void write(byte[] data, int offset, int length) throws IOException {
+			out = grow(out, pos, length);
+			System.arraycopy(data, offset, out, pos, length);
+			pos += length;
+		}
+		
+		@Override
+		protected void write(ByteBuffer data) throws IOException {
+			int length = data.remaining();
+			out = grow(out, pos, length);
+			data.get(out, pos, length);
+			pos += length;
+		}
+	}
+	
+	/**
+	 * Encodes an object into an array of the exact size, determined by {@link BencodeObject#encodedLength()}.
+	 * The encoded form of the object itself is not taken from its cache, as it is to be created for the cache.
+	 */
+	static byte[] encode(BencodeObject obj) throws IOException {
+		long length = obj.encodedLength();
+		if (length > Integer.MAX_VALUE - 8) throw new IOException("Maximum array size exceeded");
+		Encoder enc = new Encoder((int)length);
+		((BencodeWriter)enc).serializer.uncached = obj;
+		enc.write(obj);
+		return enc.out;
+	}
 	
 	/**
 	 * Writes the next Bencode object to the output.
-	 * Lists and dictionaries are serialized recursively.
+	 * Lists and dictionaries are serialized including their sub-structure, using an explicit stack rather than recursion.
+	 * Small fragments are collected in an internal buffer and passed to the output in chunks, the object has been passed on entirely when this function returns.
 	 * @param obj Object to serialize.
 	 * @return This writer object.
 	 * @throws IOException If a write error occurs.
 	 */
 	public BencodeWriter write(BencodeObject obj) throws IOException {
 		if (closed) throw new IOException("Writer is closed");
+		boolean complete = false;
 		try {
-			serializer.writeObject(obj);
-		} catch (BencodeException e) {
-			throw (IOException)e.getCause();
+			serializer.writeObject(obj, true);
+			complete = true;
+		} finally {
+			endDocument(complete);
 		}
 		return this;
 	}
+	
+	/**
+	 * Called after each top-level object (or bound instance, see {@link BencodeCodec}) has been passed to the output functions,
+	 * as well as after a failure while writing one.
+	 * Implementations which defer the output, e.g. to keep references to payloads, have to submit it here.
+	 * @param complete Whether the object has been written completely, otherwise the output of the object should be dropped if possible.
+	 * @throws IOException If a write error occurs.
+	 */
+	protected void endDocument(boolean complete) throws IOException {
+	}
+	
+	/*
+	 * Token-level output of bound objects (see BencodeCodec), collected in the internal buffer the same way as objects.
+	 * Positions are only recorded for objects embedded by putObject, no hashes are computed.
+	 */
+	
+	void putToken(byte token) throws IOException {
+		serializer.put(token);
+	}
+	
+	void putInteger(long value) throws IOException {
+		serializer.putInteger(value);
+	}
+	
+	void putString(byte[] data) throws IOException {
+		serializer.putLength(data.length);
+		serializer.put(data, 0, data.length);
+	}
+	
+	void putString(String str) throws IOException {
+		serializer.writeKey(str);
+	}
+	
+	void putObject(BencodeObject obj) throws IOException {
+		serializer.writeObject(obj, false);
+	}
+	
+	void flushTokens() throws IOException {
+		serializer.flush();
+		serializer.base = serializer.fill = 0;
+		endDocument(true);
+	}
+	
+	void discardTokens() throws IOException {
+		serializer.base = serializer.fill = 0;
+		endDocument(false);
+	}
 
 }
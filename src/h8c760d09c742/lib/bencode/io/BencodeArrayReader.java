@@ -0,0 +1,47 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import h8c760d09c742.lib.bencode.BencodeObject;
+
+/**
+ * Deserialization of Bencode entities from a byte array.
+ */
+public class BencodeArrayReader extends BencodeBufferReader {
+
+	/**
+	 * Creates a new reader instance backed by a byte array.
+	 * Positions are reported relative to the beginning of the array.
+	 * @param data The array to read from.
+	 * @param offset Index of the first byte to read.
+	 * @param length Number of bytes available for reading.
+	 */
+	public BencodeArrayReader(byte[] data, int offset, int length) {
+		super(ByteBuffer.wrap(data, offset, length));
+	}
+	
+	/**
+	 * Creates a new reader instance backed by a byte array.
+	 * @param data The array to read from.
+	 */
+	public BencodeArrayReader(byte[] data) {
+		this(data, 0, data.length);
+	}
+	
+	/**
+	 * Reads all Bencode objects contained in a byte array in order.
+	 * @param data The serialized objects.
+	 * @return The deserialized objects.
+	 * @throws IOException In case of a parsing error.
+	 */
+	public static List<BencodeObject> readAll(byte[] data) throws IOException {
+		BencodeArrayReader rd = new BencodeArrayReader(data);
+		List<BencodeObject> objs = new ArrayList<>();
+		for (BencodeObject o = rd.read(); o != null; o = rd.read()) objs.add(o);
+		return objs;
+	}
+
+}
@@ -2,6 +2,7 @@ package h8c760d09c742.lib.bencode.io;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import h8c760d09c742.lib.bencode.BencodeObject;
 
@@ -10,25 +11,48 @@ import h8c760d09c742.lib.bencode.BencodeObject;
  */
 public class BencodeArrayWriter extends BencodeStreamWriter {
 
+	/**
+	 * Output array taking buffers directly, so encoded subtrees and slices are not copied to a temporary array first.
+	 */
+	private static final class Output extends ByteArrayOutputStream {
+		Output() {
+			super(256);
+		}
+		
+		synchronized void write(ByteBuffer data) {
+			int length = data.remaining();
+			buf = grow(buf, count, length);
+			data.get(buf, count, length);
+			count += length;
+		}
+	}
+	
 	/**
 	 * Creates a new Bencode writer instance backed by an internal buffer.
 	 */
 	public BencodeArrayWriter() {
-		super(new ByteArrayOutputStream(), false);
+		super(new Output(), false);
 	}
 	
 	/**
 	 * Writes all specified Bencode objects to a byte array in order.
+	 * The array is allocated once in the exact size of the output (see {@link BencodeObject#encodedLength()}).
 	 * @param obj The objects to serialize.
 	 * @return The serialization output.
 	 */
 	public static byte[] writeAll(BencodeObject... obj) {
-		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {	
+		long length = 0;
+		for (BencodeObject o : obj) length += o.encodedLength();
+		if (length > Integer.MAX_VALUE - 8) throw new IllegalStateException("Maximum array size exceeded");
+		byte[] out = new byte[(int)length];
+		BencodeBufferWriter wr = new BencodeBufferWriter(ByteBuffer.wrap(out));
+		wr.setTracking(Tracking.NONE);
+		try {
 			for (BencodeObject o : obj) wr.write(o);
-			return wr.toByteArray();
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
 		}
+		return out;
 	}
 	
 	@Override
@@ -37,9 +61,16 @@ public class BencodeArrayWriter extends BencodeStreamWriter {
 		return this;
 	}
 	
+	@Override
+	protected void write(ByteBuffer data) throws IOException {
+		int length = data.remaining();
+		((Output)strmOut).write(data);
+		pos += length;
+	}
+	
 	/**
 	 * Retrieves the content of the buffer backing this writer.
-	 * @return The content of the buffer.
+	 * @return A copy of the content of the buffer.
 	 */
 	public byte[] toByteArray() {
 		return ((ByteArrayOutputStream)strmOut).toByteArray();
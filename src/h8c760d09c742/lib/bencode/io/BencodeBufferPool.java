@@ -0,0 +1,54 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of buffers for writers which allocate their output (see {@link BencodeChunkWriter}).
+ * Buffers are acquired for the lifetime of a writer's output and returned to the pool when it is released.
+ * @see BencodeSizeClassPool
+ */
+public interface BencodeBufferPool {
+
+	/**
+	 * Pool allocating a new heap buffer for every request and discarding returned ones.
+	 */
+	BencodeBufferPool HEAP = new BencodeBufferPool() {
+		@Override
+		public ByteBuffer acquire(int capacity) {
+			return ByteBuffer.allocate(capacity);
+		}
+
+		@Override
+		public void release(ByteBuffer buf) {
+		}
+	};
+
+	/**
+	 * Pool allocating a new direct buffer for every request and discarding returned ones.
+	 */
+	BencodeBufferPool DIRECT = new BencodeBufferPool() {
+		@Override
+		public ByteBuffer acquire(int capacity) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+
+		@Override
+		public void release(ByteBuffer buf) {
+		}
+	};
+
+	/**
+	 * Takes a buffer from the pool.
+	 * @param capacity The minimum capacity required.
+	 * @return A cleared buffer of at least the requested capacity, owned by the caller until it is released.
+	 */
+	ByteBuffer acquire(int capacity);
+
+	/**
+	 * Returns a buffer to the pool.
+	 * The buffer and any views of it must not be used by the caller afterwards.
+	 * @param buf A buffer previously acquired from this pool.
+	 */
+	void release(ByteBuffer buf);
+
+}
@@ -2,17 +2,26 @@ package h8c760d09c742.lib.bencode.io;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
+import h8c760d09c742.lib.bencode.BencodeException;
+import h8c760d09c742.lib.bencode.BencodeObject;
 import h8c760d09c742.lib.bencode.BencodeReader;
+import h8c760d09c742.lib.bencode.BencodeScanner;
+import h8c760d09c742.lib.bencode.BencodeString;
 
 /**
  * Deserialization of Bencode entities from a byte buffer.
+ * <br>Numbers are scanned by index directly in the backing array of heap buffers or by absolute access to direct buffers.
+ * <br>In zero-copy mode string-objects are slices of the input buffer rather than copies (see {@link #setZeroCopy(boolean)}),
+ * in lazy mode lists and dictionaries are decoded on demand (see {@link #setLazy(boolean)}).
  */
 public class BencodeBufferReader extends BencodeReader {
 
 	protected final ByteBuffer bufIn;
+	private final BencodeScanner scanner;
+	private boolean zeroCopy, lazy;
+	private int captureMark;
 	
 	/**
 	 * Creates a new reader instance backed by a Buffer.
@@ -20,6 +29,47 @@ public class BencodeBufferReader extends BencodeReader {
 	 */
 	public BencodeBufferReader(ByteBuffer bufIn) {
 		this.bufIn = bufIn;
+		this.scanner = new BencodeScanner(bufIn);
+	}
+	
+	/**
+	 * Determines whether string-objects are backed by the input buffer.
+	 * @return Whether zero-copy mode is enabled.
+	 */
+	public boolean isZeroCopy() {
+		return zeroCopy;
+	}
+	
+	/**
+	 * Enables or disables zero-copy mode.
+	 * In zero-copy mode string-objects read are backed by the input buffer and only copied when {@link BencodeString#getData()} is called,
+	 * the content of the buffer must therefore not be modified as long as these objects are in use.
+	 * @param zeroCopy Whether string-objects should be slices of the input buffer.
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+	
+	/**
+	 * Determines whether lists and dictionaries are decoded on demand.
+	 * @return Whether lazy mode is enabled.
+	 */
+	public boolean isLazy() {
+		return lazy;
+	}
+	
+	/**
+	 * Enables or disables lazy mode.
+	 * In lazy mode top-level lists and dictionaries are only validated when read,
+	 * their elements are decoded from the input buffer when they are accessed (see {@link BencodeScanner#readLazy()}).
+	 * The content of the buffer must therefore not be modified as long as these objects are in use.
+	 * Only the positions of top-level objects are recorded in lazy mode.
+	 * Lazy dictionaries look up their keys in the encoded form, regardless of {@link #setRawKeys(boolean)}.
+	 * Objects are read eagerly while hashes are computed (see {@link #addDigest(String, String...)}).
+	 * @param lazy Whether lists and dictionaries should be decoded on demand.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
 	}
 	
 	@Override
@@ -27,24 +77,102 @@ public class BencodeBufferReader extends BencodeReader {
 		return bufIn.position();
 	}
 	
+	@Override
+	public BencodeObject read() throws IOException {
+		if (lazy && !closed && !hasDigests() && bufIn.hasRemaining()) {
+			int start = bufIn.position();
+			byte chr = bufIn.get(start);
+			if (chr == 'd' || chr == 'l') {
+				BencodeObject o;
+				sync();
+				try {
+					o = scanner.readLazy();
+				} catch (IOException e) {
+					throw new BencodeException("Parsing error @" + scanner.position() + " in object starting @" + start, e);
+				} finally {
+					bufIn.position(scanner.position());
+				}
+				track(o, start, bufIn.position(), true);
+				return o;
+			}
+		}
+		return super.read();
+	}
+	
+	@Override
+	protected boolean supportsCapture() {
+		return true;
+	}
+	
+	@Override
+	protected void flushCapture() {
+		int p = bufIn.position();
+		if (isCapturing() && p > captureMark) {
+			ByteBuffer range = bufIn.duplicate();
+			range.limit(p).position(captureMark);
+			capture(range);
+		}
+		captureMark = p;
+	}
+	
+	private void sync() {
+		scanner.limit(bufIn.limit());
+		scanner.position(bufIn.position());
+		scanner.setMaxDepth(getMaxDepth());
+	}
+	
 	@Override
 	protected byte readByte() throws IOException {
-		byte b;
+		if (!bufIn.hasRemaining()) throw new EOFException();
+		return bufIn.get();
+	}
+	
+	@Override
+	protected void read(byte[] data) throws IOException {
+		if (bufIn.remaining() < data.length) throw new EOFException();
+		bufIn.get(data);
+	}
+	
+	@Override
+	protected void read(byte[] data, int offset, int length) throws IOException {
+		if (bufIn.remaining() < length) throw new EOFException();
+		bufIn.get(data, offset, length);
+	}
+	
+	@Override
+	protected void skip(long length) throws IOException {
+		if (bufIn.remaining() < length) throw new EOFException();
+		bufIn.position(bufIn.position() + (int)length);
+	}
+	
+	@Override
+	protected long readInteger() throws IOException {
+		sync();
 		try {
-			b = bufIn.get();
-		} catch (BufferUnderflowException e) {
-			throw new EOFException();
+			return scanner.readNumber(true);
+		} finally {
+			bufIn.position(scanner.position());
 		}
-		return b;
 	}
 	
 	@Override
-	protected void read(byte[] data) throws IOException {
+	protected long readLength(byte first) throws IOException {
+		sync();
+		scanner.position(scanner.position() - 1);
 		try {
-			bufIn.get(data);
-		} catch (BufferUnderflowException e) {
-			throw new EOFException();
+			return scanner.readNumber(false);
+		} finally {
+			bufIn.position(scanner.position());
 		}
 	}
+	
+	@Override
+	protected BencodeString readString(int length) throws IOException {
+		if (!zeroCopy) return super.readString(length);
+		sync();
+		BencodeString str = scanner.readString(length);
+		bufIn.position(scanner.position());
+		return str;
+	}
 
 }
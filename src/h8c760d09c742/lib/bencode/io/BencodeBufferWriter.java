@@ -7,6 +7,8 @@ import h8c760d09c742.lib.bencode.BencodeWriter;
 
 /**
  * Serialization of Bencode entities to a preallocated byte buffer.
+ * Output exceeding the buffer fails with a {@link java.nio.BufferOverflowException},
+ * use {@link BencodeChunkWriter} for output of unknown size.
  */
 public class BencodeBufferWriter extends BencodeWriter {
 
@@ -34,5 +36,15 @@ public class BencodeBufferWriter extends BencodeWriter {
 	protected void write(byte[] data) throws IOException {
 		bufOut.put(data);
 	}
+	
+	@Override
+	protected void write(byte[] data, int offset, int length) throws IOException {
+		bufOut.put(data, offset, length);
+	}
+	
+	@Override
+	protected void write(ByteBuffer data) throws IOException {
+		bufOut.put(data);
+	}
 
 }
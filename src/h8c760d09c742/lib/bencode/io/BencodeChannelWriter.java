@@ -0,0 +1,189 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import h8c760d09c742.lib.bencode.BencodeObject;
+import h8c760d09c742.lib.bencode.BencodeWriter;
+
+/**
+ * Serialization of Bencode entities to a blocking channel.
+ * Structural fragments and small strings are encoded directly into a scratch buffer, while large payloads are passed to the channel
+ * as buffers wrapping their content without copying it. Each top-level object is submitted in as few vectored writes as possible
+ * if the channel is a {@link GatheringByteChannel}.
+ */
+public class BencodeChannelWriter extends BencodeWriter implements Closeable, Flushable {
+
+	/**
+	 * Size of the scratch buffer by default.
+	 */
+	public static final int DEFAULT_SCRATCH_SIZE = 16384;
+
+	/**
+	 * Maximum number of buffers submitted in one write, below common operating system limits.
+	 */
+	private static final int MAX_BUFFERS = 64;
+
+	protected final WritableByteChannel chOut;
+	protected final boolean closeCh;
+	private final int scratchSize;
+	private final ByteBuffer[] pending = new ByteBuffer[MAX_BUFFERS];
+	private int count;
+	private long pos;
+
+	/**
+	 * Creates a new writer instance backed by a channel.
+	 * @param chOut The channel to write to, which must be in blocking mode.
+	 * @param close Whether to close the underlying channel if this writer is closed.
+	 * @param scratchSize Size of the buffer in which small fragments are collected, at least 64 bytes.
+	 */
+	public BencodeChannelWriter(WritableByteChannel chOut, boolean close, int scratchSize) {
+		super(scratchSize);
+		this.chOut = chOut;
+		this.closeCh = close;
+		this.scratchSize = scratchSize;
+	}
+
+	/**
+	 * Creates a new writer instance backed by a channel, using a scratch buffer of {@link #DEFAULT_SCRATCH_SIZE}.
+	 * Closing the writer closes the underlying channel.
+	 * @param chOut The channel to write to, which must be in blocking mode.
+	 */
+	public BencodeChannelWriter(WritableByteChannel chOut) {
+		this(chOut, true, DEFAULT_SCRATCH_SIZE);
+	}
+
+	@Override
+	public int getPosition() {
+		return checkedPosition(pos);
+	}
+
+	@Override
+	public long getOffset() {
+		return pos;
+	}
+
+	@Override
+	public BencodeChannelWriter write(BencodeObject obj) throws IOException {
+		super.write(obj);
+		return this;
+	}
+
+	@Override
+	protected void endDocument(boolean complete) throws IOException {
+		try {
+			if (complete) drain();
+		} finally {
+			discard();
+		}
+	}
+
+	/**
+	 * Queues the fragments collected in the internal buffer, which serves as the scratch buffer, without copying them.
+	 * The buffer is only reused from its start once everything queued has been written.
+	 */
+	@Override
+	protected int writeChunk(byte[] chunk, int start, int end, int room) throws IOException {
+		if (end > start) {
+			queue(ByteBuffer.wrap(chunk, start, end - start));
+			pos += end - start;
+		}
+		if (chunk.length - end >= room) return end;
+		drain();
+		return 0;
+	}
+
+	/*
+	 * Fragments passed other than through the internal buffer are not kept, so they are written right away after the output queued before them.
+	 */
+
+	@Override
+	protected void write(byte data) throws IOException {
+		write(new byte[] { data });
+	}
+
+	@Override
+	protected void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	@Override
+	protected void write(byte[] data, int offset, int length) throws IOException {
+		write(ByteBuffer.wrap(data, offset, length));
+	}
+
+	@Override
+	protected void write(ByteBuffer data) throws IOException {
+		queue(data);
+		pos += data.remaining();
+		drain();
+	}
+
+	/**
+	 * Passes strings which do not fit in the scratch buffer as payloads, so they are neither copied nor split across writes.
+	 */
+	@Override
+	protected int getPayloadThreshold() {
+		return scratchSize;
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer data) throws IOException {
+		queue(data.duplicate());
+		pos += data.remaining();
+		data.position(data.limit());
+	}
+
+	private void queue(ByteBuffer data) throws IOException {
+		if (count == pending.length) drain();
+		pending[count++] = data;
+	}
+
+	/**
+	 * Writes the queued buffers to the channel.
+	 */
+	private void drain() throws IOException {
+		if (chOut instanceof GatheringByteChannel) {
+			GatheringByteChannel ch = (GatheringByteChannel)chOut;
+			int first = 0;
+			while (first < count) {
+				ch.write(pending, first, count - first);
+				while (first < count && !pending[first].hasRemaining()) first++;
+			}
+		} else {
+			for (int n = 0; n < count; n++) {
+				while (pending[n].hasRemaining()) chOut.write(pending[n]);
+			}
+		}
+		Arrays.fill(pending, 0, count, null);
+		count = 0;
+	}
+
+	/**
+	 * Drops anything not written, so the payloads are not referenced beyond the current object.
+	 */
+	private void discard() {
+		Arrays.fill(pending, 0, count, null);
+		count = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (closeCh) chOut.close();
+		} finally {
+			super.close();
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import h8c760d09c742.lib.bencode.BencodeObject;
+import h8c760d09c742.lib.bencode.BencodeWriter;
+
+/**
+ * Serialization of Bencode entities in-memory to a sequence of buffers taken from a pool as the output grows.
+ * Unlike {@link BencodeArrayWriter} the output is never copied on growth and can be retrieved as buffers backed by the pooled ones,
+ * e.g. for gathering writes to a channel.<br>
+ * The buffers remain owned by the writer until they are released (see {@link #release()}), closing the writer releases them as well.
+ */
+public class BencodeChunkWriter extends BencodeWriter implements Closeable {
+
+	/**
+	 * Size of the buffers requested from the pool by default.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	private final BencodeBufferPool pool;
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	// buffers replaced by consolidating the output, kept until they are released as views may still refer to them
+	private final List<ByteBuffer> retired = new ArrayList<>();
+	private ByteBuffer current;
+	private long pos;
+
+	/**
+	 * Creates a new writer instance backed by buffers from a pool.
+	 * @param pool The pool to take buffers from.
+	 * @param chunkSize The capacity requested for each buffer.
+	 */
+	public BencodeChunkWriter(BencodeBufferPool pool, int chunkSize) {
+		if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be positive.");
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Creates a new writer instance backed by buffers of {@link #DEFAULT_CHUNK_SIZE} from a pool.
+	 * @param pool The pool to take buffers from.
+	 */
+	public BencodeChunkWriter(BencodeBufferPool pool) {
+		this(pool, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new writer instance backed by newly allocated heap buffers.
+	 */
+	public BencodeChunkWriter() {
+		this(BencodeBufferPool.HEAP);
+	}
+
+	@Override
+	public int getPosition() {
+		return checkedPosition(pos);
+	}
+
+	@Override
+	public long getOffset() {
+		return pos;
+	}
+
+	@Override
+	public BencodeChunkWriter write(BencodeObject obj) throws IOException {
+		super.write(obj);
+		return this;
+	}
+
+	/**
+	 * Gets a buffer with space left, taking a new one from the pool if the current one is full.
+	 */
+	private ByteBuffer current() {
+		ByteBuffer buf = current;
+		if (buf == null || !buf.hasRemaining()) {
+			buf = pool.acquire(chunkSize);
+			if (!buf.hasRemaining()) throw new IllegalStateException("Pool returned an empty buffer");
+			chunks.add(buf);
+			current = buf;
+		}
+		return buf;
+	}
+
+	@Override
+	protected void write(byte data) throws IOException {
+		current().put(data);
+		pos++;
+	}
+
+	@Override
+	protected void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	@Override
+	protected void write(byte[] data, int offset, int length) throws IOException {
+		while (length > 0) {
+			ByteBuffer buf = current();
+			int n = Math.min(length, buf.remaining());
+			buf.put(data, offset, n);
+			offset += n;
+			length -= n;
+			pos += n;
+		}
+	}
+
+	@Override
+	protected void write(ByteBuffer data) throws IOException {
+		int limit = data.limit();
+		while (data.hasRemaining()) {
+			ByteBuffer buf = current();
+			int n = Math.min(data.remaining(), buf.remaining());
+			data.limit(data.position() + n);
+			buf.put(data);
+			data.limit(limit);
+			pos += n;
+		}
+	}
+
+	/**
+	 * Creates a read-only view of the content of a buffer.
+	 */
+	private static ByteBuffer view(ByteBuffer buf) {
+		ByteBuffer view = buf.duplicate();
+		view.flip();
+		return view.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Retrieves the output as the buffers backing this writer, without copying.
+	 * The views are valid until the buffers are released and do not reflect data written afterwards.
+	 * @return Read-only views of the content of each buffer in order.
+	 */
+	public List<ByteBuffer> getBuffers() {
+		List<ByteBuffer> views = new ArrayList<>(chunks.size());
+		for (ByteBuffer buf : chunks) views.add(view(buf));
+		return Collections.unmodifiableList(views);
+	}
+
+	/**
+	 * Gets the length of the output for retrieving it in a single buffer or array.
+	 */
+	private int singleLength() {
+		if (pos > Integer.MAX_VALUE - 8) throw new IllegalStateException("Output exceeds the maximum array size");
+		return (int)pos;
+	}
+
+	/**
+	 * Retrieves the output as a single buffer.
+	 * As long as the output fits in one buffer it is not copied, otherwise it is consolidated in a buffer large enough to hold it,
+	 * which replaces the previous ones and is used for further output.
+	 * The replaced buffers are kept until they are released, so views retrieved by {@link #getBuffers()} before remain valid.
+	 * The view is valid until the buffers are released and does not reflect data written afterwards.
+	 * @return A read-only view of the output.
+	 * @throws IllegalStateException If the output is too large for a single buffer.
+	 */
+	public ByteBuffer toByteBuffer() {
+		if (chunks.isEmpty()) return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		if (chunks.size() > 1) {
+			ByteBuffer all = pool.acquire(singleLength());
+			for (ByteBuffer buf : chunks) {
+				buf.flip();
+				all.put(buf);
+			}
+			retired.addAll(chunks);
+			chunks.clear();
+			chunks.add(all);
+			current = all;
+		}
+		return view(current);
+	}
+
+	/**
+	 * Retrieves a copy of the output.
+	 * @return The output in a new array.
+	 * @throws IllegalStateException If the output is too large for an array.
+	 */
+	public byte[] toByteArray() {
+		byte[] out = new byte[singleLength()];
+		int n = 0;
+		for (ByteBuffer buf : chunks) {
+			int length = buf.position();
+			view(buf).get(out, n, length);
+			n += length;
+		}
+		return out;
+	}
+
+	/**
+	 * Returns all buffers to the pool and resets the writer to an empty output.
+	 * Buffers or views retrieved before must not be used afterwards.
+	 */
+	public void release() {
+		for (ByteBuffer buf : chunks) pool.release(buf);
+		for (ByteBuffer buf : retired) pool.release(buf);
+		chunks.clear();
+		retired.clear();
+		current = null;
+		pos = 0;
+		resetPositions();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			release();
+		} finally {
+			super.close();
+		}
+	}
+
+}
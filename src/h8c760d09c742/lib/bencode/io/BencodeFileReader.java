@@ -0,0 +1,205 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import h8c760d09c742.lib.bencode.BencodeReader;
+import h8c760d09c742.lib.bencode.BencodeString;
+
+/**
+ * Deserialization of Bencode entities from a memory-mapped file.
+ * The file is mapped in windows of limited size, so files of any size can be read, with positions reported as 64-bit offsets (see {@link #getOffset()}).
+ * A window is replaced by the next one when the input reaches its end.
+ * <br>In zero-copy mode string-objects are slices of the mapped windows rather than copies (see {@link #setZeroCopy(boolean)}).
+ * The file must not be truncated or modified while it is read or such objects are in use.
+ */
+public class BencodeFileReader extends BencodeReader implements Closeable {
+
+	/**
+	 * Size of the mapped windows by default.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+	protected final FileChannel chIn;
+	protected final boolean closeCh;
+	private final long origin, size;
+	private final int windowSize;
+	private ByteBuffer window;
+	private long base;
+	private boolean zeroCopy;
+	private int captureMark;
+
+	/**
+	 * Creates a new reader instance backed by a file channel, starting at its current position.
+	 * @param chIn The channel to read from.
+	 * @param close Whether to close the underlying channel if this reader is closed.
+	 * @param windowSize Maximum size of the mapped windows.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public BencodeFileReader(FileChannel chIn, boolean close, int windowSize) throws IOException {
+		if (windowSize < 1) throw new IllegalArgumentException("Window size must be positive.");
+		this.chIn = chIn;
+		this.closeCh = close;
+		this.windowSize = windowSize;
+		this.origin = chIn.position();
+		this.size = chIn.size();
+		map(origin, 0);
+	}
+
+	/**
+	 * Creates a new reader instance backed by a file channel, starting at its current position and using windows of {@link #DEFAULT_WINDOW_SIZE}.
+	 * Closing the reader closes the underlying channel.
+	 * @param chIn The channel to read from.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public BencodeFileReader(FileChannel chIn) throws IOException {
+		this(chIn, true, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a new reader instance for a file, using windows of {@link #DEFAULT_WINDOW_SIZE}.
+	 * @param file The path of the file to read.
+	 * @throws IOException If the file cannot be opened or mapped.
+	 */
+	public BencodeFileReader(Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.READ));
+	}
+
+	/**
+	 * Determines whether string-objects are backed by the mapped file.
+	 * @return Whether zero-copy mode is enabled.
+	 */
+	public boolean isZeroCopy() {
+		return zeroCopy;
+	}
+
+	/**
+	 * Enables or disables zero-copy mode.
+	 * In zero-copy mode string-objects read are backed by the mapped windows and only copied when {@link BencodeString#getData()} is called.
+	 * A window remains mapped as long as any of these objects is in use.
+	 * Strings which do not fit in the rest of the current window are read from a window starting with them.
+	 * @param zeroCopy Whether string-objects should be slices of the mapped file.
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+
+	@Override
+	public int getPosition() {
+		return checkedPosition(getOffset());
+	}
+
+	@Override
+	public long getOffset() {
+		return base + window.position() - origin;
+	}
+
+	/**
+	 * Gets the size of the input.
+	 * @return The number of bytes from the initial position to the end of the file.
+	 */
+	public long getLength() {
+		return size - origin;
+	}
+
+	/**
+	 * Maps the window starting at a position of the file.
+	 * @param at Offset in the file.
+	 * @param length Minimum size of the window, larger than the default size for strings which would not fit otherwise.
+	 */
+	private void map(long at, int length) throws IOException {
+		if (window != null) flushCapture();
+		window = chIn.map(FileChannel.MapMode.READ_ONLY, at, Math.min(Math.max(windowSize, length), size - at));
+		base = at;
+		captureMark = 0;
+	}
+
+	/**
+	 * Ensures that a number of bytes following the current position is available in the window.
+	 */
+	private void require(int length) throws IOException {
+		if (window.remaining() < length) {
+			long at = base + window.position();
+			if (size - at < length) throw new EOFException();
+			map(at, length);
+		}
+	}
+
+	@Override
+	protected boolean supportsCapture() {
+		return true;
+	}
+	
+	@Override
+	protected void flushCapture() {
+		int p = window.position();
+		if (isCapturing() && p > captureMark) {
+			ByteBuffer range = window.duplicate();
+			range.limit(p).position(captureMark);
+			capture(range);
+		}
+		captureMark = p;
+	}
+
+	@Override
+	protected byte readByte() throws IOException {
+		if (!window.hasRemaining()) require(1);
+		return window.get();
+	}
+
+	@Override
+	protected void read(byte[] data) throws IOException {
+		read(data, 0, data.length);
+	}
+
+	@Override
+	protected void read(byte[] data, int offset, int length) throws IOException {
+		if (size - base - window.position() < length) throw new EOFException();
+		while (length > 0) {
+			if (!window.hasRemaining()) require(1);
+			int n = Math.min(length, window.remaining());
+			window.get(data, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	@Override
+	protected void skip(long length) throws IOException {
+		long at = base + window.position();
+		if (size - at < length) throw new EOFException();
+		if (window.remaining() >= length) {
+			window.position(window.position() + (int)length);
+		} else if (isCapturing()) {
+			// skipped bytes beyond the window have to be hashed as well
+			super.skip(length);
+		} else {
+			map(at + length, 0);
+		}
+	}
+
+	@Override
+	protected BencodeString readString(int length) throws IOException {
+		if (!zeroCopy) return super.readString(length);
+		require(length);
+		int index = window.position();
+		BencodeString str = new BencodeString(window, index, length);
+		window.position(index + length);
+		return str;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (closeCh) chIn.close();
+		} finally {
+			super.close();
+		}
+	}
+
+}
@@ -0,0 +1,350 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import h8c760d09c742.lib.bencode.BencodeDictionary;
+import h8c760d09c742.lib.bencode.BencodeException;
+import h8c760d09c742.lib.bencode.BencodeIO;
+import h8c760d09c742.lib.bencode.BencodeKey;
+import h8c760d09c742.lib.bencode.BencodeList;
+import h8c760d09c742.lib.bencode.BencodeObject;
+import h8c760d09c742.lib.bencode.BencodeRawDictionary;
+import h8c760d09c742.lib.bencode.BencodeScanner;
+import h8c760d09c742.lib.bencode.BencodeString;
+
+/**
+ * Deserialization of single large Bencode documents from a byte buffer in two phases.
+ * First the document is scanned into a structural index holding the ranges of the lists and dictionaries exceeding the split size and of their elements,
+ * which is cheap since strings are skipped by their length.
+ * Then the subtrees are decoded in parallel from the ranges recorded in the index and assembled into the document.<br>
+ * The resulting objects and their recorded positions are the same as those read by {@link BencodeBufferReader},
+ * including the keys and strings taken from a symbol table (see {@link #setSymbolTable(h8c760d09c742.lib.bencode.BencodeSymbolTable)}),
+ * except that strings looked up concurrently may be distinct instances if their slot in the table is replaced meanwhile.
+ * Documents not exceeding the split size are decoded sequentially without being scanned,
+ * as are malformed input and reading in lazy mode or while hashes are computed.
+ */
+public class BencodeIndexedReader extends BencodeBufferReader {
+
+	/**
+	 * Size of the subtrees decoded sequentially by default.
+	 */
+	public static final int DEFAULT_SPLIT_SIZE = 1 << 18;
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private int splitSize = DEFAULT_SPLIT_SIZE;
+
+	/**
+	 * Creates a new reader instance backed by a Buffer.
+	 * @param bufIn The buffer to read from.
+	 */
+	public BencodeIndexedReader(ByteBuffer bufIn) {
+		super(bufIn);
+	}
+
+	/**
+	 * Gets the pool on which subtrees are decoded.
+	 * @return The fork-join pool.
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the pool on which subtrees are decoded.
+	 * @param pool The fork-join pool, {@link ForkJoinPool#commonPool()} by default.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		if (pool == null) throw new IllegalArgumentException("Pool must not be null.");
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the size up to which subtrees are decoded sequentially.
+	 * @return The size in bytes.
+	 */
+	public int getSplitSize() {
+		return splitSize;
+	}
+
+	/**
+	 * Sets the size up to which subtrees are decoded sequentially.
+	 * Lists and dictionaries exceeding it have their elements decoded in batches of about this size in parallel.
+	 * @param splitSize The size in bytes, {@link #DEFAULT_SPLIT_SIZE} by default.
+	 */
+	public void setSplitSize(int splitSize) {
+		if (splitSize < 1) throw new IllegalArgumentException("Split size must be positive.");
+		this.splitSize = splitSize;
+	}
+
+	/**
+	 * Structural index of a document, holding the ranges of the lists and dictionaries exceeding the split size and of their elements in pre-order.
+	 * Values nested in smaller lists and dictionaries are not recorded, so the index of a value is followed by those of its elements only if it is split.
+	 * The type of a value is given by its first byte.
+	 */
+	private static final class Index {
+		int[] starts, ends, next;
+		int count;
+
+		Index(int capacity) {
+			starts = new int[capacity];
+			ends = new int[capacity];
+			next = new int[capacity];
+		}
+
+		int add(int start) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+				next = Arrays.copyOf(next, count * 2);
+			}
+			starts[count] = start;
+			return count++;
+		}
+	}
+
+	/**
+	 * Positions of decoded objects in order of their completion, to be recorded by the reader once the document is assembled.
+	 */
+	private static final class Positions {
+		BencodeObject[] objs = new BencodeObject[16];
+		long[] starts = new long[16], ends = new long[16];
+		int count;
+
+		void add(BencodeObject obj, long start, long end) {
+			if (count == objs.length) {
+				objs = Arrays.copyOf(objs, count * 2);
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			objs[count] = obj;
+			starts[count] = start;
+			ends[count] = end;
+			count++;
+		}
+
+		void addAll(BencodeIO io) {
+			for (BencodeObject o : io.getObjects()) {
+				BencodeIO.Range r = io.getPosition(o);
+				add(o, r.getStartOffset(), r.getEndOffset());
+			}
+		}
+
+		void addAll(Positions p) {
+			for (int n = 0; n < p.count; n++) add(p.objs[n], p.starts[n], p.ends[n]);
+		}
+	}
+
+	/**
+	 * Decoded elements (or keys and values) of a list or dictionary.
+	 */
+	private static final class Part {
+		final BencodeObject[] objs;
+		final Positions positions;
+
+		Part(BencodeObject[] objs, Positions positions) {
+			this.objs = objs;
+			this.positions = positions;
+		}
+	}
+
+	@Override
+	public BencodeObject read() throws IOException {
+		int start = bufIn.position();
+		if (closed || isLazy() || hasDigests() || bufIn.remaining() <= splitSize) return super.read();
+		byte chr = bufIn.get(start);
+		if (chr != 'l' && chr != 'd') return super.read();
+
+		boolean full = getTracking() == Tracking.FULL;
+		BencodeObject doc = readSmall(start, full);
+		if (doc != null) return doc;
+		Index index = scan(start);
+		// malformed input is left to the sequential reader, which reports the error exactly as for any other reader
+		if (index == null || index.ends[0] - start <= splitSize) return super.read();
+
+		try {
+			Part part = pool.invoke(ForkJoinTask.adapt(() -> decodeLarge(index, 0, full)));
+			doc = part.objs[0];
+			if (full) {
+				for (int n = 0; n < part.positions.count - 1; n++) track(part.positions.objs[n], part.positions.starts[n], part.positions.ends[n], false);
+			}
+		} catch (RuntimeException e) {
+			// failures of the tasks arrive wrapped, possibly several times when rethrown in another thread
+			for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+				if (t instanceof IOException) throw new BencodeException("Parsing error in object starting @" + start, t);
+			}
+			throw e;
+		}
+		bufIn.position(index.ends[0]);
+		track(doc, start, index.ends[0], true);
+		return doc;
+	}
+
+	/**
+	 * Decodes the document at a position sequentially if it does not exceed the split size.
+	 * @return The document or {@code null} if it exceeds the split size or is malformed, leaving this reader unchanged.
+	 */
+	private BencodeObject readSmall(int start, boolean full) {
+		BencodeBufferReader rd = reader(start, start + splitSize, full);
+		rd.setMaxDepth(getMaxDepth());
+		BencodeObject doc;
+		try {
+			doc = rd.read();
+		} catch (IOException e) {
+			return null;
+		}
+		if (full) {
+			for (BencodeObject o : rd.getObjects()) {
+				if (o != doc) track(o, rd.getPosition(o).getStartOffset(), rd.getPosition(o).getEndOffset(), false);
+			}
+		}
+		bufIn.position(rd.getPosition());
+		track(doc, start, bufIn.position(), true);
+		return doc;
+	}
+
+	/**
+	 * Builds the structural index of the value at a position, validating it the same way as {@link BencodeScanner#skipValue()}.
+	 * @return The index or {@code null} if the value is malformed or incomplete.
+	 */
+	private Index scan(int start) {
+		BencodeScanner scan = new BencodeScanner(bufIn);
+		scan.position(start);
+		Index index = new Index(64);
+		int[] open = new int[8];
+		int depth = -1, maxDepth = getMaxDepth();
+		boolean expectKey = false;
+		try {
+			for (;;) {
+				int pos = scan.position();
+				if (pos >= scan.limit()) return null;
+				byte chr = scan.byteAt(pos);
+				if (chr == 'e' && depth >= 0) {
+					int c = open[depth];
+					if (!expectKey && scan.byteAt(index.starts[c]) == 'd') return null;
+					scan.position(pos + 1);
+					index.ends[c] = pos + 1;
+					// the elements of a list or dictionary which is decoded as a whole are dropped again
+					if (pos + 1 - index.starts[c] <= splitSize) index.count = c + 1;
+					index.next[c] = index.count;
+					if (--depth < 0) return index;
+					expectKey = scan.byteAt(index.starts[open[depth]]) == 'd';
+					continue;
+				}
+				if (expectKey && !(chr >= 0x30 && chr < 0x3A)) return null;
+				int n = index.add(pos);
+				if (chr == 'i') {
+					scan.position(pos + 1);
+					scan.readNumber(true);
+				} else if (chr == 'l' || chr == 'd') {
+					if (depth + 1 >= maxDepth) return null;
+					if (++depth == open.length) open = Arrays.copyOf(open, depth * 2);
+					open[depth] = n;
+					scan.position(pos + 1);
+					expectKey = chr == 'd';
+					continue;
+				} else if (chr >= 0x30 && chr < 0x3A) {
+					long length = scan.readNumber(false);
+					if (length > scan.limit() - scan.position()) return null;
+					scan.position(scan.position() + (int)length);
+				} else {
+					return null;
+				}
+				index.ends[n] = scan.position();
+				index.next[n] = n + 1;
+				if (scan.byteAt(index.starts[open[depth]]) == 'd') expectKey = !expectKey;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a reader for values whose structure has already been validated, sharing the input and the settings of this reader.
+	 */
+	private BencodeBufferReader reader(int start, int end, boolean full) {
+		ByteBuffer in = bufIn.duplicate();
+		in.limit(end).position(start);
+		BencodeBufferReader rd = new BencodeBufferReader(in);
+		rd.setTracking(full ? Tracking.FULL : Tracking.NONE);
+		rd.setZeroCopy(isZeroCopy());
+		rd.setRawKeys(isRawKeys());
+		rd.setSymbolTable(getSymbolTable());
+		rd.setMaxDepth(Integer.MAX_VALUE);
+		return rd;
+	}
+
+	/**
+	 * Decodes a run of consecutive values sequentially.
+	 */
+	private Part decodeRun(Index index, int first, int count, boolean full) throws IOException {
+		int last = first;
+		for (int n = 1; n < count; n++) last = index.next[last];
+		BencodeBufferReader rd = reader(index.starts[first], index.ends[last], full);
+		BencodeObject[] objs = new BencodeObject[count];
+		for (int n = 0; n < count; n++) objs[n] = rd.read();
+		Positions positions = null;
+		if (full) {
+			positions = new Positions();
+			positions.addAll(rd);
+		}
+		return new Part(objs, positions);
+	}
+
+	/**
+	 * Decodes a list or dictionary exceeding the split size, with its elements decoded in batches in parallel.
+	 */
+	private Part decodeLarge(Index index, int node, boolean full) throws IOException {
+		List<ForkJoinTask<Part>> tasks = new ArrayList<>();
+		int end = index.next[node], first = node + 1, count = 0, size = 0;
+		for (int n = node + 1; n < end; n = index.next[n]) {
+			int length = index.ends[n] - index.starts[n];
+			boolean large = index.next[n] > n + 1;
+			if (count > 0 && (large || size + length > splitSize)) {
+				int f = first, c = count;
+				tasks.add(ForkJoinTask.adapt(() -> decodeRun(index, f, c, full)));
+				count = size = 0;
+			}
+			if (large) {
+				int c = n;
+				tasks.add(ForkJoinTask.adapt(() -> decodeLarge(index, c, full)));
+				continue;
+			}
+			if (count++ == 0) first = n;
+			size += length;
+		}
+		if (count > 0) {
+			int f = first, c = count;
+			tasks.add(ForkJoinTask.adapt(() -> decodeRun(index, f, c, full)));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		boolean dict = bufIn.get(index.starts[node]) == 'd';
+		BencodeObject obj = !dict ? new BencodeList() : isRawKeys() ? new BencodeRawDictionary() : new BencodeDictionary();
+		Positions positions = full ? new Positions() : null;
+		Object key = null;
+		for (ForkJoinTask<Part> task : tasks) {
+			Part part = task.join();
+			if (full) positions.addAll(part.positions);
+			for (BencodeObject o : part.objs) {
+				if (!dict) {
+					obj.append(o);
+				} else if (key == null) {
+					key = toKey((BencodeString)o);
+				} else {
+					if (isRawKeys()) ((BencodeRawDictionary)obj).put((BencodeKey)key, o);
+					else obj.set((String)key, o);
+					key = null;
+				}
+			}
+		}
+		if (full) positions.add(obj, index.starts[node], index.ends[node]);
+		return new Part(new BencodeObject[] { obj }, positions);
+	}
+
+}
@@ -0,0 +1,459 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import h8c760d09c742.lib.bencode.BencodeException;
+import h8c760d09c742.lib.bencode.BencodeIO;
+import h8c760d09c742.lib.bencode.BencodeObject;
+import h8c760d09c742.lib.bencode.BencodeReader;
+import h8c760d09c742.lib.bencode.BencodeScanner;
+import h8c760d09c742.lib.bencode.BencodeSymbolTable;
+
+/**
+ * Parallel deserialization of back-to-back Bencode documents from a buffer or memory-mapped file.
+ * The boundaries of the documents are found by skipping their structure with a {@link BencodeScanner}, which moves past strings by their length
+ * without looking at their content. Batches of documents are handed to other threads as soon as their boundaries are known
+ * and decoded there, while the input is scanned further.<br>
+ * The documents are provided as an ordered parallel {@link Stream}, running on the common fork-join pool
+ * or the pool from which the terminal operation is invoked. Errors in the input are thrown as {@link UncheckedIOException}
+ * wrapping a {@link BencodeException}.<br>
+ * The settings must not be changed while a stream is in use.
+ */
+public class BencodeParallelReader {
+
+	/**
+	 * Amount of input scanned for a batch of documents by default.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1 << 20;
+
+	/**
+	 * Document along with its location in the input.
+	 */
+	public static final class Document {
+		private final long offset, length;
+		private final BencodeObject object;
+
+		Document(long offset, long length, BencodeObject object) {
+			this.offset = offset;
+			this.length = length;
+			this.object = object;
+		}
+
+		/**
+		 * Gets the position of the document, counted from the initial position like the positions of the other readers.
+		 * @return Offset of the first byte from the position of the buffer or channel when the reader was created.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Gets the length of the encoded document.
+		 * @return The number of bytes.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Gets the decoded document.
+		 * @return The top-level object.
+		 */
+		public BencodeObject getObject() {
+			return object;
+		}
+	}
+
+	/**
+	 * Mapped part of the input.
+	 */
+	private static final class Window {
+		final ByteBuffer buf;
+		final long base;
+
+		Window(ByteBuffer buf, long base) {
+			this.buf = buf;
+			this.base = base;
+		}
+	}
+
+	private final ByteBuffer bufIn;
+	private final FileChannel chIn;
+	private final long origin, size;
+	private final int windowSize;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int maxDepth = BencodeReader.DEFAULT_MAX_DEPTH;
+	private boolean zeroCopy, lazy, rawKeys;
+	private BencodeSymbolTable symbols;
+
+	/**
+	 * Creates a new parallel reader for the documents between the position and the limit of a buffer.
+	 * @param bufIn The buffer to read from, its position and limit are not changed.
+	 */
+	public BencodeParallelReader(ByteBuffer bufIn) {
+		this.bufIn = bufIn;
+		this.chIn = null;
+		this.origin = bufIn.position();
+		this.size = bufIn.limit();
+		this.windowSize = 0;
+	}
+
+	/**
+	 * Creates a new parallel reader for the documents in a file, from the current position of the channel to the end of the file.
+	 * The file is mapped in windows, documents exceeding a window are read from a larger one.
+	 * The channel is not closed by the reader, but must remain open as long as documents are read.
+	 * @param chIn The channel to read from.
+	 * @param windowSize Size of the mapped windows.
+	 * @throws IOException If the position or size of the file cannot be determined.
+	 */
+	public BencodeParallelReader(FileChannel chIn, int windowSize) throws IOException {
+		if (windowSize < 1) throw new IllegalArgumentException("Window size must be positive.");
+		this.bufIn = null;
+		this.chIn = chIn;
+		this.origin = chIn.position();
+		this.size = chIn.size();
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Creates a new parallel reader for the documents in a file, using windows of {@link BencodeFileReader#DEFAULT_WINDOW_SIZE}.
+	 * @param chIn The channel to read from.
+	 * @throws IOException If the position or size of the file cannot be determined.
+	 * @see #BencodeParallelReader(FileChannel, int)
+	 */
+	public BencodeParallelReader(FileChannel chIn) throws IOException {
+		this(chIn, BencodeFileReader.DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Gets the amount of input scanned for each batch of documents handed to another thread.
+	 * @return The size of a batch in bytes.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the amount of input scanned for each batch of documents handed to another thread, at least one document is passed in each batch.
+	 * @param batchSize The size of a batch in bytes, {@link #DEFAULT_BATCH_SIZE} by default.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive.");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Gets the maximum nesting depth of lists and dictionaries accepted.
+	 * @return The maximum number of nested lists and dictionaries.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Limits the nesting depth of lists and dictionaries (see {@link BencodeReader#setMaxDepth(int)}).
+	 * @param maxDepth The maximum number of nested lists and dictionaries, {@link BencodeReader#DEFAULT_MAX_DEPTH} by default.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) throw new IllegalArgumentException("Maximum depth must be positive.");
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Determines whether string-objects are backed by the input.
+	 * @return Whether zero-copy mode is enabled.
+	 */
+	public boolean isZeroCopy() {
+		return zeroCopy;
+	}
+
+	/**
+	 * Enables or disables zero-copy mode (see {@link BencodeBufferReader#setZeroCopy(boolean)}).
+	 * @param zeroCopy Whether string-objects should be slices of the input.
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+
+	/**
+	 * Determines whether lists and dictionaries are decoded on demand.
+	 * @return Whether lazy mode is enabled.
+	 */
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Enables or disables lazy mode (see {@link BencodeBufferReader#setLazy(boolean)}).
+	 * @param lazy Whether lists and dictionaries should be decoded on demand.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Determines whether dictionaries are read with raw byte-string keys.
+	 * @return Whether dictionaries are read as {@link h8c760d09c742.lib.bencode.BencodeRawDictionary}.
+	 */
+	public boolean isRawKeys() {
+		return rawKeys;
+	}
+
+	/**
+	 * Sets whether dictionaries are read with raw byte-string keys (see {@link BencodeReader#setRawKeys(boolean)}).
+	 * @param rawKeys Read raw keys, {@code false} by default.
+	 */
+	public void setRawKeys(boolean rawKeys) {
+		this.rawKeys = rawKeys;
+	}
+
+	/**
+	 * Gets the symbol table shared by the threads decoding documents.
+	 * @return The symbol table or {@code null}.
+	 */
+	public BencodeSymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/**
+	 * Sets a symbol table shared by the threads decoding documents (see {@link BencodeReader#setSymbolTable(BencodeSymbolTable)}).
+	 * @param symbols The symbol table or {@code null} to read all strings normally.
+	 */
+	public void setSymbolTable(BencodeSymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Creates a spliterator over the documents in the input, splitting off batches in order.
+	 * @return An ordered spliterator.
+	 */
+	public Spliterator<Document> spliterator() {
+		return new Scan();
+	}
+
+	/**
+	 * Reads the documents in parallel.
+	 * @return An ordered parallel stream of the documents along with their locations.
+	 */
+	public Stream<Document> documents() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Reads the documents in parallel.
+	 * @return An ordered parallel stream of the top-level objects.
+	 */
+	public Stream<BencodeObject> stream() {
+		return documents().map(Document::getObject);
+	}
+
+	/**
+	 * Reads the documents in parallel, passing each to a callback.
+	 * The callback is invoked concurrently from the threads of the pool, in no particular order.
+	 * @param action The function receiving each top-level object along with its offset (see {@link Document#getOffset()}).
+	 * @throws UncheckedIOException In case of a parsing error.
+	 */
+	public void forEach(ObjLongConsumer<? super BencodeObject> action) {
+		documents().forEach(d -> action.accept(d.getObject(), d.getOffset()));
+	}
+
+	private Window map(long at, long length) {
+		if (chIn == null) return new Window(bufIn, 0);
+		try {
+			return new Window(chIn.map(FileChannel.MapMode.READ_ONLY, at, length), at);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private BencodeScanner scanner(Window w, int position) {
+		BencodeScanner scan = new BencodeScanner(w.buf);
+		scan.limit(w.buf.limit());
+		scan.position(position);
+		scan.setMaxDepth(maxDepth);
+		return scan;
+	}
+
+	/**
+	 * Reader decoding documents from a window, reused for consecutive documents of the same window.
+	 */
+	private final class Decoder {
+		final Window window;
+		final ByteBuffer in;
+		final BencodeBufferReader reader;
+
+		Decoder(Window window) {
+			this.window = window;
+			this.in = window.buf.duplicate();
+			this.reader = new BencodeBufferReader(in);
+			reader.setTracking(BencodeIO.Tracking.NONE);
+			reader.setZeroCopy(zeroCopy);
+			reader.setLazy(lazy);
+			reader.setRawKeys(rawKeys);
+			reader.setSymbolTable(symbols);
+			reader.setMaxDepth(maxDepth);
+		}
+
+		Document decode(int start, int end) {
+			in.limit(end).position(start);
+			try {
+				return new Document(window.base + start - origin, end - start, reader.read());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private Decoder decoder(Decoder current, Window w) {
+		return current != null && current.window == w ? current : new Decoder(w);
+	}
+
+	/**
+	 * Spliterator scanning the input for document boundaries, splitting off batches of documents whose boundaries are known.
+	 */
+	private final class Scan implements Spliterator<Document> {
+		private Window window;
+		private BencodeScanner scanner;
+		private Decoder decoder;
+		// range of the last document found
+		private int start, end;
+
+		Scan() {
+			if (chIn == null) {
+				window = map(0, 0);
+			} else {
+				window = map(origin, Math.min(windowSize, size - origin));
+			}
+			scanner = scanner(window, chIn == null ? (int)origin : 0);
+		}
+
+		/**
+		 * Finds the next document, mapping a new window if it exceeds the current one.
+		 */
+		private boolean advance() {
+			for (;;) {
+				start = scanner.position();
+				try {
+					scanner.skipValue();
+					end = scanner.position();
+					return true;
+				} catch (IOException e) {
+					if (scanner.position() >= scanner.limit() && remap()) continue;
+					if (start == scanner.limit() && e instanceof EOFException) return false;
+					throw new UncheckedIOException(new BencodeException(
+						"Parsing error @" + (window.base + scanner.position() - origin) + " in object starting @" + (window.base + start - origin), e));
+				}
+			}
+		}
+
+		/**
+		 * Maps a window starting with the current document, larger than the current one if the document started at its beginning.
+		 */
+		private boolean remap() {
+			long at = window.base + start, available = size - at;
+			int have = scanner.limit() - start;
+			if (chIn == null || available <= have) return false;
+			long length = Math.min(available, Math.min(Integer.MAX_VALUE, Math.max(windowSize, 2L * have)));
+			if (length <= have) return false;
+			window = map(at, length);
+			scanner = scanner(window, 0);
+			return true;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Document> action) {
+			if (!advance()) return false;
+			decoder = decoder(decoder, window);
+			action.accept(decoder.decode(start, end));
+			return true;
+		}
+
+		@Override
+		public Spliterator<Document> trySplit() {
+			Window[] wins = new Window[16];
+			int[] bounds = new int[32];
+			int count = 0;
+			long total = 0;
+			while (total < batchSize && advance()) {
+				if (count == wins.length) {
+					wins = Arrays.copyOf(wins, count * 2);
+					bounds = Arrays.copyOf(bounds, count * 4);
+				}
+				wins[count] = window;
+				bounds[2 * count] = start;
+				bounds[2 * count + 1] = end;
+				count++;
+				total += end - start;
+			}
+			return count == 0 ? null : new Batch(wins, bounds, 0, count);
+		}
+
+		@Override
+		public long estimateSize() {
+			// unknown, so the stream keeps splitting off batches until the input is exhausted
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/**
+	 * Spliterator over documents whose boundaries are known.
+	 */
+	private final class Batch implements Spliterator<Document> {
+		private final Window[] wins;
+		private final int[] bounds;
+		private int index;
+		private final int fence;
+		private Decoder decoder;
+
+		Batch(Window[] wins, int[] bounds, int index, int fence) {
+			this.wins = wins;
+			this.bounds = bounds;
+			this.index = index;
+			this.fence = fence;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Document> action) {
+			if (index >= fence) return false;
+			int n = index++;
+			decoder = decoder(decoder, wins[n]);
+			action.accept(decoder.decode(bounds[2 * n], bounds[2 * n + 1]));
+			return true;
+		}
+
+		@Override
+		public Spliterator<Document> trySplit() {
+			int mid = (index + fence) >>> 1;
+			if (mid <= index) return null;
+			Batch prefix = new Batch(wins, bounds, index, mid);
+			index = mid;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return fence - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+		}
+	}
+
+}
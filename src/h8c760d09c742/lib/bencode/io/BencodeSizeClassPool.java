@@ -0,0 +1,107 @@
+package h8c760d09c742.lib.bencode.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of heap or direct buffers sorted into size classes, which are the powers of two between a minimum and a maximum size.
+ * Requests are served from the smallest class large enough, requests above the maximum size get a buffer of their own which is not retained.<br>
+ * The pool may be shared by any number of writers in different threads.
+ */
+public class BencodeSizeClassPool implements BencodeBufferPool {
+
+	private final boolean direct;
+	private final int minShift, maxShift, maxRetained;
+	private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private final AtomicInteger[] counts;
+
+	/**
+	 * Creates an empty pool.
+	 * @param direct Whether to allocate direct buffers instead of heap buffers.
+	 * @param minSize Capacity of the smallest class, rounded up to a power of two.
+	 * @param maxSize Capacity of the largest class, rounded up to a power of two.
+	 * @param maxRetained Maximum number of free buffers kept per class, further ones are discarded on release.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BencodeSizeClassPool(boolean direct, int minSize, int maxSize, int maxRetained) {
+		if (minSize < 1 || maxSize < minSize || maxSize > 1 << 30) throw new IllegalArgumentException("Size out of range.");
+		if (maxRetained < 0) throw new IllegalArgumentException("Number of retained buffers must not be negative.");
+		this.direct = direct;
+		this.minShift = shift(minSize);
+		this.maxShift = shift(maxSize);
+		this.maxRetained = maxRetained;
+		int classes = maxShift - minShift + 1;
+		this.free = new ConcurrentLinkedQueue[classes];
+		this.counts = new AtomicInteger[classes];
+		for (int n = 0; n < classes; n++) {
+			free[n] = new ConcurrentLinkedQueue<>();
+			counts[n] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * Determines the exponent of the smallest power of two not less than a size.
+	 */
+	private static int shift(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	@Override
+	public ByteBuffer acquire(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative.");
+		int s = Math.max(shift(capacity), minShift);
+		if (s > maxShift) return allocate(capacity);
+		ByteBuffer buf = free[s - minShift].poll();
+		if (buf == null) return allocate(1 << s);
+		counts[s - minShift].decrementAndGet();
+		buf.clear();
+		return buf;
+	}
+
+	@Override
+	public void release(ByteBuffer buf) {
+		int capacity = buf.capacity();
+		int s = shift(capacity);
+		// buffers not allocated by this pool and oversized ones are left to the garbage collector
+		if (buf.isDirect() != direct || buf.isReadOnly() || capacity != 1 << s || s < minShift || s > maxShift) return;
+		AtomicInteger count = counts[s - minShift];
+		if (count.incrementAndGet() > maxRetained) {
+			count.decrementAndGet();
+			return;
+		}
+		free[s - minShift].offer(buf);
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Gets whether the pool holds direct buffers.
+	 * @return {@code true} for direct buffers, {@code false} for heap buffers.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Gets the number of free buffers held by the pool.
+	 * @return The number of buffers available for reuse.
+	 */
+	public int getRetained() {
+		int n = 0;
+		for (AtomicInteger c : counts) n += c.get();
+		return n;
+	}
+
+	/**
+	 * Discards all free buffers.
+	 */
+	public void clear() {
+		for (int n = 0; n < free.length; n++) {
+			while (free[n].poll() != null) counts[n].decrementAndGet();
+		}
+	}
+
+}
@@ -1,29 +1,56 @@
 package h8c760d09c742.lib.bencode.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
 
 import h8c760d09c742.lib.bencode.BencodeReader;
 
 /**
  * Deserialization of Bencode entities from an input stream.
+ * <br>In buffered mode input is fetched from the stream in blocks and kept in an internal window,
+ * bytes read ahead of the last object can be recovered by {@link #getRemainder()}.
  */
 public class BencodeStreamReader extends BencodeReader implements Closeable {
 
+	/**
+	 * Buffer size used by {@link #BencodeStreamReader(InputStream, boolean, int)} if none is specified.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+	
 	protected final InputStream strmIn;
 	protected final boolean closeStrm;
-	protected int pos;
+	protected final byte[] buf;
+	protected int bufPos, bufLim;
+	protected long pos;
+	private int captureMark;
+	private byte[] single;
 	
 	/**
 	 * Creates a new reader instance backed by a stream.
 	 * @param strmIn The stream to read from.
 	 * @param close Whether to close the underlying stream if this reader is closed.
+	 * @param bufferSize Size of the internal read-ahead window, zero to read the stream byte by byte.
 	 */
-	public BencodeStreamReader(InputStream strmIn, boolean close) {
+	public BencodeStreamReader(InputStream strmIn, boolean close, int bufferSize) {
+		if (bufferSize < 0) throw new IllegalArgumentException("Buffer size must not be negative.");
 		this.strmIn = strmIn;
 		this.closeStrm = close;
+		this.buf = bufferSize > 0 ? new byte[bufferSize] : null;
+	}
+	
+	/**
+	 * Creates a new reader instance backed by a stream.
+	 * The stream is read byte by byte, leaving it positioned right after the last object read.
+	 * @param strmIn The stream to read from.
+	 * @param close Whether to close the underlying stream if this reader is closed.
+	 */
+	public BencodeStreamReader(InputStream strmIn, boolean close) {
+		this(strmIn, close, 0);
 	}
 	
 	/**
@@ -37,21 +64,137 @@ public class BencodeStreamReader extends BencodeReader implements Closeable {
 	
 	@Override
 	public int getPosition() {
+		return checkedPosition(pos);
+	}
+	
+	@Override
+	public long getOffset() {
 		return pos;
 	}
 	
+	/**
+	 * Determines the number of bytes fetched from the stream which have not been consumed yet.
+	 * @return The number of bytes in the internal window, zero for an unbuffered reader.
+	 */
+	public int getBuffered() {
+		return bufLim - bufPos;
+	}
+	
+	/**
+	 * Hands out the unconsumed input, e.g. after the last document of interest has been read.
+	 * Bytes buffered by this reader are transferred to the returned stream, which continues with the underlying stream.
+	 * Reading from this reader afterwards continues behind the transferred bytes.
+	 * @return A stream positioned right after the last object read.
+	 */
+	public InputStream getRemainder() {
+		if (bufPos == bufLim) return strmIn;
+		InputStream rest = new ByteArrayInputStream(Arrays.copyOfRange(buf, bufPos, bufLim));
+		bufPos = bufLim;
+		return new SequenceInputStream(rest, strmIn);
+	}
+	
 	@Override
-	protected byte readByte() throws IOException {
+	protected boolean supportsCapture() {
+		return true;
+	}
+	
+	@Override
+	protected void flushCapture() {
+		if (isCapturing() && bufPos > captureMark) capture(buf, captureMark, bufPos - captureMark);
+		captureMark = bufPos;
+	}
+	
+	/**
+	 * Reads from the underlying stream, waiting for at least one byte.
+	 * Streams returning no bytes rather than blocking are waited for by reading a single byte.
+	 */
+	private int readStream(byte[] data, int offset, int length) throws IOException {
+		int n = strmIn.read(data, offset, length);
+		if (n != 0) return n;
 		int b = strmIn.read();
-		if (b < 0) throw new EOFException();
+		if (b < 0) return -1;
+		data[offset] = (byte)b;
+		return 1;
+	}
+	
+	private boolean fill() throws IOException {
+		flushCapture();
+		int n = readStream(buf, 0, buf.length);
+		bufPos = captureMark = 0;
+		bufLim = Math.max(n, 0);
+		return n > 0;
+	}
+	
+	@Override
+	protected byte readByte() throws IOException {
+		if (buf == null) {
+			int b = strmIn.read();
+			if (b < 0) throw new EOFException();
+			pos++;
+			if (isCapturing()) {
+				if (single == null) single = new byte[1];
+				single[0] = (byte)b;
+				capture(single, 0, 1);
+			}
+			return (byte)b;
+		}
+		if (bufPos == bufLim && !fill()) throw new EOFException();
 		pos++;
-		return (byte)b;
+		return buf[bufPos++];
 	}
 	
 	@Override
 	protected void read(byte[] data) throws IOException {
-		if (strmIn.read(data) < data.length) throw new EOFException();
-		pos += data.length;
+		read(data, 0, data.length);
+	}
+	
+	@Override
+	protected void read(byte[] data, int offset, int length) throws IOException {
+		int end = offset + length, n;
+		while (offset < end) {
+			if (bufPos < bufLim) {
+				n = Math.min(bufLim - bufPos, end - offset);
+				System.arraycopy(buf, bufPos, data, offset, n);
+				bufPos += n;
+			} else if (buf != null && end - offset < buf.length) {
+				if (!fill()) throw new EOFException();
+				continue;
+			} else {
+				n = readStream(data, offset, end - offset);
+				if (n < 0) throw new EOFException();
+				if (isCapturing()) {
+					flushCapture();
+					capture(data, offset, n);
+				}
+			}
+			offset += n;
+			pos += n;
+		}
+	}
+	
+	@Override
+	protected void skip(long length) throws IOException {
+		while (length > 0) {
+			long n;
+			if (bufPos < bufLim) {
+				n = Math.min(bufLim - bufPos, length);
+				bufPos += (int)n;
+			} else if (isCapturing()) {
+				// skipped bytes have to be hashed
+				super.skip(length);
+				return;
+			} else {
+				n = strmIn.skip(length);
+				if (n <= 0) {
+					// skip() may not detect the end of the stream
+					readByte();
+					length--;
+					continue;
+				}
+			}
+			length -= n;
+			pos += n;
+		}
 	}
 	
 	@Override
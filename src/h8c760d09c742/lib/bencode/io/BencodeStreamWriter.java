@@ -17,7 +17,7 @@ public class BencodeStreamWriter extends BencodeWriter implements Closeable, Flu
 
 	protected final OutputStream strmOut;
 	protected final boolean closeStrm;
-	protected int pos;
+	protected long pos;
 	
 	/**
 	 * Creates a new writer instance backed by a stream.
@@ -52,6 +52,11 @@ public class BencodeStreamWriter extends BencodeWriter implements Closeable, Flu
 	
 	@Override
 	public int getPosition() {
+		return checkedPosition(pos);
+	}
+	
+	@Override
+	public long getOffset() {
 		return pos;
 	}
 	
@@ -73,6 +78,12 @@ public class BencodeStreamWriter extends BencodeWriter implements Closeable, Flu
 		pos += data.length;
 	}
 	
+	@Override
+	protected void write(byte[] data, int offset, int length) throws IOException {
+		strmOut.write(data, offset, length);
+		pos += length;
+	}
+	
 	@Override
 	public void close() throws IOException {
 		try {
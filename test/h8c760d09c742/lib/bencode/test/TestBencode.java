@@ -1,23 +1,74 @@
 package h8c760d09c742.lib.bencode.test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.ExtensionContext;
 
+import h8c760d09c742.lib.bencode.BencodeCodec;
 import h8c760d09c742.lib.bencode.BencodeDictionary;
+import h8c760d09c742.lib.bencode.BencodeDigest;
+import h8c760d09c742.lib.bencode.BencodeEventReader;
 import h8c760d09c742.lib.bencode.BencodeException;
+import h8c760d09c742.lib.bencode.BencodeIO;
+import h8c760d09c742.lib.bencode.BencodeIncrementalReader;
+import h8c760d09c742.lib.bencode.BencodeInteger;
+import h8c760d09c742.lib.bencode.BencodeKey;
 import h8c760d09c742.lib.bencode.BencodeList;
 import h8c760d09c742.lib.bencode.BencodeObject;
+import h8c760d09c742.lib.bencode.BencodeProjection;
+import h8c760d09c742.lib.bencode.BencodeRawDictionary;
 import h8c760d09c742.lib.bencode.BencodeReader;
+import h8c760d09c742.lib.bencode.BencodeRecords;
+import h8c760d09c742.lib.bencode.BencodeString;
+import h8c760d09c742.lib.bencode.BencodeStringifier;
+import h8c760d09c742.lib.bencode.BencodeSymbolTable;
+import h8c760d09c742.lib.bencode.BencodeValidator;
+import h8c760d09c742.lib.bencode.io.BencodeArrayReader;
 import h8c760d09c742.lib.bencode.io.BencodeArrayWriter;
 import h8c760d09c742.lib.bencode.io.BencodeBufferReader;
+import h8c760d09c742.lib.bencode.io.BencodeChannelWriter;
+import h8c760d09c742.lib.bencode.io.BencodeChunkWriter;
+import h8c760d09c742.lib.bencode.io.BencodeFileReader;
+import h8c760d09c742.lib.bencode.io.BencodeIndexedReader;
+import h8c760d09c742.lib.bencode.io.BencodeParallelReader;
+import h8c760d09c742.lib.bencode.io.BencodeSizeClassPool;
+import h8c760d09c742.lib.bencode.io.BencodeStreamReader;
+import h8c760d09c742.lib.bencode.io.BencodeStreamWriter;
 
 @ExtendWith(TestBencode.TestMethodPrinter.class)
 public class TestBencode {
@@ -107,4 +158,1169 @@ public class TestBencode {
 		System.out.println(doc.toString(true, rd));
 	}
 	
+	@Test
+	public void readStreamBuffered() throws IOException {
+		// deliver at most 3 bytes per read to exercise short reads
+		InputStream in = new ByteArrayInputStream("d1:ai1e1:bl3:xyzee4:spamrest".getBytes()) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+		BencodeStreamReader rd = new BencodeStreamReader(in, true, 4);
+		BencodeObject doc = rd.read();
+		assertEquals(1L, doc.get("a").getValue());
+		assertEquals("xyz", doc.get("b").get(0).getString());
+		assertEquals(18, rd.getPosition());
+		assertEquals("spam", rd.read().getString());
+		assertEquals(24, rd.getPosition());
+		
+		StringBuilder rest = new StringBuilder();
+		InputStream rem = rd.getRemainder();
+		for (int b = rem.read(); b >= 0; b = rem.read()) rest.append((char)b);
+		assertEquals("rest", rest.toString());
+		assertNull(rd.read());
+		rd.close();
+		
+		// a stream returning no bytes instead of blocking is read byte by byte, also for strings exceeding the buffer
+		in = new ByteArrayInputStream("l10:abcdefghiji1ee".getBytes()) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return 0;
+			}
+		};
+		rd = new BencodeStreamReader(in, true, 4);
+		doc = rd.read();
+		assertEquals("abcdefghij", doc.get(0).getString());
+		assertEquals(1L, doc.get(1).getValue());
+		assertNull(rd.read());
+	}
+	
+	@Test
+	public void readNumbers() throws IOException {
+		byte[] in = "li-9223372036854775808ei9223372036854775807ei0e3:abce".getBytes();
+		ByteBuffer direct = ByteBuffer.allocateDirect(in.length);
+		direct.put(in).flip();
+		for (BencodeReader rd : new BencodeReader[] {
+				new BencodeArrayReader(in), new BencodeBufferReader(direct), new BencodeStreamReader(new ByteArrayInputStream(in)) }) {
+			BencodeObject doc = rd.read();
+			assertEquals(Long.MIN_VALUE, doc.get(0).getValue());
+			assertEquals(Long.MAX_VALUE, doc.get(1).getValue());
+			assertEquals(0L, doc.get(2).getValue());
+			assertEquals("abc", doc.get(3).getString());
+			assertEquals(in.length, rd.getPosition());
+		}
+		for (String bad : new String[] { "i9223372036854775808e", "i-9223372036854775809e", "i100000000000000000000e", "i1-2e", "ie", "i12", "i1:" }) {
+			try {
+				new BencodeArrayReader(bad.getBytes()).read();
+				fail(bad);
+			} catch (BencodeException e) {
+				System.err.println(bad + ": " + e.getMessage() + ": " + e.getCause().getMessage());
+			}
+		}
+	}
+	
+	@Test
+	public void trackPositions() throws IOException {
+		byte[] in = "d1:ali1ei2eee4:spam".getBytes();
+		BencodeReader rd = new BencodeArrayReader(in);
+		BencodeObject doc = rd.read();
+		assertEquals(5, rd.getObjects().size());
+		assertEquals(4, rd.getPosition(doc.get("a")).getStart());
+		assertEquals(13, rd.getPosition(doc).getEnd());
+		
+		rd.resetPositions();
+		rd.setTracking(BencodeIO.Tracking.TOP_LEVEL);
+		BencodeObject str = rd.read();
+		assertEquals(1, rd.getObjects().size());
+		assertEquals(13, rd.getPosition(str).getStart());
+		assertNull(rd.getPosition(doc));
+		
+		rd = new BencodeArrayReader(in);
+		rd.setTracking(BencodeIO.Tracking.NONE);
+		rd.read();
+		assertTrue(rd.getObjects().isEmpty());
+		
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			wr.setTracking(BencodeIO.Tracking.TOP_LEVEL);
+			wr.write(doc);
+			assertEquals(1, wr.getObjects().size());
+			assertEquals(13, wr.getPosition(doc).getEnd());
+		}
+	}
+	
+	@Test
+	public void readZeroCopy() throws IOException {
+		byte[] in = "d4:name4:test6:pieces8:ABCDEFGHe".getBytes();
+		ByteBuffer direct = ByteBuffer.allocateDirect(in.length);
+		direct.put(in).flip();
+		for (ByteBuffer buf : new ByteBuffer[] { ByteBuffer.wrap(in), direct }) {
+			BencodeBufferReader rd = new BencodeBufferReader(buf);
+			rd.setZeroCopy(true);
+			BencodeObject doc = rd.read();
+			BencodeObject pieces = doc.get("pieces");
+			assertEquals(8, pieces.getLength());
+			assertTrue(pieces.getBuffer().isReadOnly());
+			assertEquals('C', pieces.getBuffer().get(2));
+			assertEquals("test", doc.get("name").getString());
+			assertArrayEquals("ABCDEFGH".getBytes(), pieces.getData());
+			assertTrue(pieces.getData() == pieces.getData());
+			assertArrayEquals(in, BencodeArrayWriter.writeAll(doc));
+		}
+	}
+	
+	@Test
+	public void readLazy() throws IOException {
+		// keys out of order, the encoded form is preserved as long as nothing is modified
+		byte[] in = "d4:infod6:lengthi12e4:name4:teste8:announce3:url5:filesli1ei2eee".getBytes();
+		BencodeBufferReader rd = new BencodeBufferReader(ByteBuffer.wrap(in));
+		rd.setLazy(true);
+		BencodeObject doc = rd.read();
+		assertEquals(in.length, rd.getPosition());
+		assertEquals("url", doc.get("announce").getString());
+		assertEquals("test", doc.get("info").get("name").getString());
+		assertEquals(2L, doc.get("files").get(1).getValue());
+		assertNull(doc.get("missing"));
+		assertArrayEquals(in, BencodeArrayWriter.writeAll(doc));
+		
+		doc.get("info").set("length", new BencodeInteger(13));
+		assertEquals("d8:announce3:url5:filesli1ei2ee4:infod6:lengthi13e4:name4:testee", new String(BencodeArrayWriter.writeAll(doc)));
+		assertEquals(3, doc.getCount());
+		
+		rd = new BencodeBufferReader(ByteBuffer.wrap("d1:ad1:bi1e1:cee".getBytes()));
+		rd.setLazy(true);
+		try {
+			rd.read();
+			fail();
+		} catch (BencodeException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Test
+	public void readEvents() throws IOException {
+		byte[] in = "d1:ad1:xli1eee1:q4:ping1:t2:aae".getBytes();
+		for (BencodeReader src : new BencodeReader[] {
+				new BencodeArrayReader(in), new BencodeStreamReader(new ByteArrayInputStream(in), true, 5) }) {
+			BencodeEventReader rd = new BencodeEventReader(src);
+			assertEquals(BencodeEventReader.Event.START_DICT, rd.next());
+			assertEquals(BencodeEventReader.Event.KEY, rd.next());
+			assertTrue(rd.dataEquals("a"));
+			rd.skipValue();
+			assertEquals(BencodeEventReader.Event.END, rd.getEvent());
+			assertEquals(1, rd.getDepth());
+			assertEquals(BencodeEventReader.Event.KEY, rd.next());
+			assertEquals(BencodeEventReader.Event.STRING, rd.next());
+			assertEquals(4, rd.getLength());
+			assertEquals(17, rd.getTokenPosition());
+			assertEquals(19, rd.getDataPosition());
+			byte[] buf = new byte[4];
+			assertEquals(3, rd.readData(buf, 0, 3));
+			assertEquals(1, rd.readData(buf, 3, 3));
+			assertEquals(-1, rd.readData(buf, 0, 3));
+			assertEquals("ping", new String(buf));
+			assertEquals(BencodeEventReader.Event.KEY, rd.next());
+			assertEquals(BencodeEventReader.Event.STRING, rd.next());
+			assertEquals(BencodeEventReader.Event.END, rd.next());
+			assertEquals(0, rd.getDepth());
+			assertNull(rd.next());
+			assertEquals(in.length, rd.getPosition());
+		}
+		
+		BencodeEventReader rd = new BencodeEventReader(new BencodeArrayReader("li42e".getBytes()));
+		rd.next();
+		assertEquals(42L, rd.next() == BencodeEventReader.Event.INTEGER ? rd.longValue() : 0);
+		try {
+			rd.next();
+			fail();
+		} catch (BencodeException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Test
+	public void readIncremental() throws IOException {
+		byte[] in = "d1:ad2:id3:abce1:q4:ping1:t2:aa1:y1:qe4:spami-17e".getBytes();
+		BencodeIncrementalReader rd = new BencodeIncrementalReader();
+		ByteBuffer part = ByteBuffer.allocate(3);
+		List<BencodeObject> objs = new ArrayList<>();
+		for (int i = 0; i < in.length; i += 3) {
+			part.put(in, i, Math.min(3, in.length - i)).flip();
+			for (BencodeObject o = rd.feed(part); o != null; o = rd.feed(part)) objs.add(o);
+			part.compact();
+		}
+		assertEquals(3, objs.size());
+		assertFalse(rd.isPending());
+		assertEquals("abc", objs.get(0).get("a").get("id").getString());
+		assertEquals("q", objs.get(0).get("y").getString());
+		assertEquals("spam", objs.get(1).getString());
+		assertEquals(-17L, objs.get(2).getValue());
+		assertEquals(in.length, rd.getPosition());
+		
+		assertNull(rd.feed(ByteBuffer.wrap("d1:ai".getBytes())));
+		assertTrue(rd.isPending());
+		try {
+			rd.feed(ByteBuffer.wrap("x".getBytes()));
+			fail();
+		} catch (BencodeException e) {
+			e.printStackTrace();
+		}
+		assertFalse(rd.isPending());
+		assertEquals(5L, rd.feed(ByteBuffer.wrap("i5e".getBytes())).getValue());
+	}
+	
+	@Test
+	public void readDeep() throws IOException {
+		int depth = 100000;
+		byte[] in = new byte[depth * 2];
+		Arrays.fill(in, 0, depth, (byte)'l');
+		Arrays.fill(in, depth, in.length, (byte)'e');
+		
+		try {
+			new BencodeBufferReader(ByteBuffer.wrap(in)).read();
+			fail();
+		} catch (BencodeException e) {
+			assertEquals("Maximum nesting depth exceeded", e.getCause().getMessage());
+		}
+		BencodeBufferReader rd = new BencodeBufferReader(ByteBuffer.wrap(in));
+		rd.setLazy(true);
+		try {
+			rd.read();
+			fail();
+		} catch (BencodeException e) {
+			assertEquals("Maximum nesting depth exceeded", e.getCause().getMessage());
+		}
+		
+		rd = new BencodeBufferReader(ByteBuffer.wrap(in));
+		rd.setMaxDepth(depth);
+		BencodeObject doc = rd.read();
+		assertArrayEquals(in, BencodeArrayWriter.writeAll(doc));
+		assertEquals(depth * 8 - 1, new BencodeStringifier("", "", false, null).visit(doc).toString().length());
+	}
+	
+	@Test
+	public void readRawKeys() throws IOException {
+		byte[] in = "d3:abci1e5:filesd3:\u00ff\u0001Xd8:completei5eeee".getBytes(StandardCharsets.ISO_8859_1);
+		BencodeBufferReader rd = new BencodeBufferReader(ByteBuffer.wrap(in));
+		rd.setRawKeys(true);
+		BencodeObject doc = rd.read();
+		assertTrue(doc instanceof BencodeRawDictionary);
+		assertEquals(1L, doc.get("abc").getValue());
+		BencodeRawDictionary files = (BencodeRawDictionary)doc.get("files");
+		BencodeKey hash = files.getRawKeys().iterator().next();
+		assertArrayEquals(new byte[] { (byte)0xFF, 1, 'X' }, hash.getData());
+		assertEquals(5L, files.get(hash).get("complete").getValue());
+		assertArrayEquals(in, BencodeArrayWriter.writeAll(doc));
+		
+		BencodeDictionary dict = new BencodeDictionary().put("\uD83D\uDE00", 1).put("\uFFFD", 2).put("z", 3);
+		assertEquals("d1:zi3e3:\uFFFDi2e4:\uD83D\uDE00i1ee", new String(BencodeArrayWriter.writeAll(dict), StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void readSymbols() throws IOException {
+		byte[] in = "d1:ad2:id20:abcdefghij0123456789e1:q4:ping1:t2:aa1:y1:qe".getBytes();
+		BencodeSymbolTable symbols = new BencodeSymbolTable(256, 8);
+		BencodeObject[] docs = new BencodeObject[2];
+		for (int n = 0; n < docs.length; n++) {
+			BencodeBufferReader rd = new BencodeBufferReader(ByteBuffer.wrap(in));
+			rd.setSymbolTable(symbols);
+			docs[n] = rd.read();
+			assertArrayEquals(in, BencodeArrayWriter.writeAll(docs[n]));
+		}
+		assertEquals(7L, symbols.getMisses());
+		assertEquals(9L, symbols.getHits());
+		assertTrue(docs[0].get("q") == docs[1].get("q"));
+		assertFalse(docs[0].get("a").get("id") == docs[1].get("a").get("id"));
+		assertTrue(docs[0].getKeys().iterator().next() == docs[1].getKeys().iterator().next());
+		
+		symbols.resetStatistics();
+		assertEquals(0L, symbols.getHits());
+		assertEquals("ping", symbols.getString("xping".getBytes(), 1, 4).getString());
+		assertEquals(1L, symbols.getHits());
+	}
+	
+	@Test
+	public void readDigest() throws Exception {
+		String info = "d4:name4:test6:lengthi13e12:piece lengthi16384e6:pieces0:e";
+		byte[] in = ("d8:announce3:url4:info" + info + "1:zi1ee").getBytes();
+		byte[] sha1 = MessageDigest.getInstance("SHA-1").digest(info.getBytes());
+		byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(info.getBytes());
+		
+		BencodeReader[] readers = {
+			new BencodeArrayReader(in),
+			new BencodeStreamReader(new ByteArrayInputStream(in), true, 5),
+			new BencodeStreamReader(new ByteArrayInputStream(in))
+		};
+		for (BencodeReader rd : readers) {
+			BencodeDigest v1 = rd.addDigest("SHA-1", "info");
+			BencodeDigest v2 = rd.addDigest("SHA-256", "info");
+			BencodeDigest all = rd.addDigest("SHA-1");
+			BencodeDigest none = rd.addDigest("SHA-1", "info", "files");
+			BencodeObject doc = rd.read();
+			assertArrayEquals(sha1, v1.getValue());
+			assertArrayEquals(sha256, v2.getValue());
+			assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(in), all.getValue());
+			assertTrue(doc.get("info") == v1.getObject());
+			assertNull(none.getValue());
+			assertNull(rd.read());
+			assertNull(v1.getValue());
+		}
+		
+		// keys are not in canonical order, so the hash of the re-encoded dictionary differs
+		BencodeObject doc = BencodeArrayReader.readAll(in).get(0);
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			BencodeDigest v1 = wr.addDigest("SHA-1", "info");
+			wr.write(doc);
+			assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(BencodeArrayWriter.writeAll(doc.get("info"))), v1.getValue());
+			assertFalse(Arrays.equals(sha1, v1.getValue()));
+		}
+		
+		// lazily read subtrees are written as read and hashed as written, also if the hashes cover parts of them
+		String lazyInfo = "d1:bi1e1:ai2ee";
+		byte[] lazyIn = ("d5:otheri3e4:info" + lazyInfo + "e").getBytes();
+		BencodeBufferReader lazy = new BencodeBufferReader(ByteBuffer.wrap(lazyIn));
+		lazy.setLazy(true);
+		doc = lazy.read();
+		assertArrayEquals(lazyIn, BencodeArrayWriter.writeAll(doc));
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			BencodeDigest v1 = wr.addDigest("SHA-1", "info");
+			BencodeDigest other = wr.addDigest("SHA-1", "other");
+			BencodeDigest inner = wr.addDigest("SHA-1", "info", "a");
+			BencodeDigest all = wr.addDigest("SHA-1");
+			BencodeDigest none = wr.addDigest("SHA-1", "info", "c");
+			wr.write(doc);
+			assertArrayEquals(lazyIn, wr.toByteArray());
+			assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(lazyInfo.getBytes()), v1.getValue());
+			assertTrue(doc.get("info") == v1.getObject());
+			assertArrayEquals(MessageDigest.getInstance("SHA-1").digest("i3e".getBytes()), other.getValue());
+			assertArrayEquals(MessageDigest.getInstance("SHA-1").digest("i2e".getBytes()), inner.getValue());
+			assertEquals(2L, inner.getObject().getValue());
+			assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(lazyIn), all.getValue());
+			assertNull(none.getValue());
+		}
+		
+		// readers not passing their input to hashes reject them
+		BencodeReader plain = new BencodeReader() {
+			@Override
+			protected byte readByte() throws IOException {
+				throw new IOException();
+			}
+			
+			@Override
+			protected void read(byte[] data) throws IOException {
+				throw new IOException();
+			}
+			
+			@Override
+			public int getPosition() {
+				return 0;
+			}
+		};
+		for (BencodeIO io : new BencodeIO[] { plain, new BencodeIncrementalReader() }) {
+			try {
+				io.addDigest("SHA-1", "info");
+				fail();
+			} catch (IllegalStateException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+	
+	@Test
+	public void writeFailure() throws IOException {
+		BencodeObject doc = new BencodeList().add(Long.MIN_VALUE).add(Long.MAX_VALUE).add(new BencodeString(new byte[10000]));
+		byte[] out = BencodeArrayWriter.writeAll(doc);
+		assertEquals("li-9223372036854775808ei9223372036854775807e10000:", new String(out, 0, 50));
+		assertEquals(10051, out.length);
+		
+		OutputStream broken = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("broken");
+			}
+		};
+		try (BencodeStreamWriter wr = new BencodeStreamWriter(broken)) {
+			wr.write(doc);
+			fail();
+		} catch (IOException e) {
+			assertEquals("broken", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void writeCached() throws IOException {
+		BencodeList peers = new BencodeList().add("peer 1");
+		BencodeDictionary resp = new BencodeDictionary().put("interval", 1800).put("peers", peers);
+		BencodeDictionary other = new BencodeDictionary().put("peers", peers);
+		resp.setEncodingCached(true);
+		other.setEncodingCached(true);
+		assertEquals("d8:intervali1800e5:peersl6:peer 1ee", new String(BencodeArrayWriter.writeAll(resp)));
+		assertEquals(35, resp.encodedLength());
+		assertEquals(resp.getEncoded(), resp.getEncoded());
+		assertEquals("d5:peersl6:peer 1ee", new String(BencodeArrayWriter.writeAll(other)));
+		
+		peers.add("peer 2");
+		assertEquals(43, resp.encodedLength());
+		assertEquals("d8:intervali1800e5:peersl6:peer 16:peer 2ee", new String(BencodeArrayWriter.writeAll(resp)));
+		assertEquals("d5:peersl6:peer 16:peer 2ee", new String(BencodeArrayWriter.writeAll(other)));
+		
+		// changes through the views are noticed by the cached encodings as well
+		resp.getEntries().iterator().next().setValue(new BencodeInteger(0));
+		assertEquals("d8:intervali0e5:peersl6:peer 16:peer 2ee", new String(BencodeArrayWriter.writeAll(resp)));
+		Iterator<BencodeObject> it = peers.iterator();
+		it.next();
+		it.remove();
+		assertEquals("d8:intervali0e5:peersl6:peer 2ee", new String(BencodeArrayWriter.writeAll(resp)));
+		assertEquals("d5:peersl6:peer 2ee", new String(BencodeArrayWriter.writeAll(other)));
+		resp.getKeys().remove("peers");
+		assertEquals("d8:intervali0ee", new String(BencodeArrayWriter.writeAll(resp)));
+		// lists removed from a dictionary no longer affect its encoding
+		peers.add("peer 1");
+		assertEquals("d8:intervali0ee", new String(BencodeArrayWriter.writeAll(resp)));
+		assertEquals("d5:peersl6:peer 26:peer 1ee", new String(BencodeArrayWriter.writeAll(other)));
+		BencodeRawDictionary raw = new BencodeRawDictionary().put(BencodeKey.of("a"), new BencodeInteger(1));
+		raw.setEncodingCached(true);
+		assertEquals("d1:ai1ee", new String(BencodeArrayWriter.writeAll(raw)));
+		raw.getRawEntries().clear();
+		assertEquals("de", new String(BencodeArrayWriter.writeAll(raw)));
+		peers.set(0, null).set(0, null);
+		resp.put("peers", peers.add("peer 1").add("peer 2"));
+		
+		// cached documents may be written by several threads at once, as long as they are not modified meanwhile
+		peers.setEncodingCached(true);
+		for (int round = 0; round < 20; round++) {
+			resp.put("interval", round);
+			String expected = "d8:intervali" + round + "e5:peersl6:peer 16:peer 2ee";
+			assertEquals(100, IntStream.range(0, 100).parallel()
+				.mapToObj(n -> n % 2 == 0 ? new String(BencodeArrayWriter.writeAll(resp)) : StandardCharsets.US_ASCII.decode(resp.getEncoded()).toString())
+				.filter(expected::equals).count());
+		}
+		
+		// shared and nested cached lists are checked once per write, but again after each modification
+		BencodeList inner = new BencodeList().add(1);
+		BencodeList outer = new BencodeList().add(new BencodeList().add(inner)).add(inner);
+		inner.setEncodingCached(true);
+		outer.setEncodingCached(true);
+		assertEquals("llli1eeeli1eee", new String(BencodeArrayWriter.writeAll(outer)));
+		inner.add(2);
+		assertEquals("llli1ei2eeeli1ei2eee", new String(BencodeArrayWriter.writeAll(outer)));
+		assertEquals(20, outer.encodedLength());
+		outer.get(0).append(new BencodeInteger(3));
+		assertEquals(23, outer.encodedLength());
+		assertEquals("llli1ei2eei3eeli1ei2eee", new String(BencodeArrayWriter.writeAll(outer)));
+		
+		// the instance writer grows its array while copying cached encodings and long strings
+		BencodeString large = new BencodeString(new byte[1000]);
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			wr.write(outer).write(large).write(resp);
+			assertArrayEquals(BencodeArrayWriter.writeAll(outer, large, resp), wr.toByteArray());
+			assertEquals(wr.getPosition(), wr.toByteArray().length);
+			wr.toByteArray()[0] = 'x';
+			assertEquals('l', wr.toByteArray()[0]);
+		}
+
+		byte[] in = "d4:listl1:ad1:xi1eeee".getBytes();
+		BencodeBufferReader rd = new BencodeBufferReader(ByteBuffer.wrap(in));
+		rd.setLazy(true);
+		BencodeObject doc = rd.read();
+		assertEquals(in.length, doc.encodedLength());
+		doc.get("list").get(1).set("x", new BencodeInteger(2));
+		assertEquals("d4:listl1:ad1:xi2eeee", new String(BencodeArrayWriter.writeAll(doc)));
+		it = doc.get("list").iterator();
+		it.next();
+		it.remove();
+		assertEquals("d4:listld1:xi2eeee", new String(BencodeArrayWriter.writeAll(doc)));
+	}
+	
+	@Test
+	public void writeChunks() throws IOException {
+		BencodeSizeClassPool pool = new BencodeSizeClassPool(true, 16, 64, 4);
+		BencodeDictionary doc = new BencodeDictionary().put("title", "Hello World!").put("blob", new BencodeString(new byte[100]));
+		byte[] expected = BencodeArrayWriter.writeAll(doc);
+		
+		try (BencodeChunkWriter wr = new BencodeChunkWriter(pool, 16)) {
+			wr.write(doc);
+			assertEquals(expected.length, wr.getPosition());
+			List<ByteBuffer> bufs = wr.getBuffers();
+			assertEquals(9, bufs.size());
+			ByteBuffer all = ByteBuffer.allocate(expected.length);
+			for (ByteBuffer b : bufs) {
+				assertTrue(b.isReadOnly() && b.isDirect());
+				all.put(b);
+			}
+			assertArrayEquals(expected, all.array());
+			assertArrayEquals(expected, wr.toByteArray());
+			
+			ByteBuffer one = wr.toByteBuffer();
+			assertEquals(expected.length, one.remaining());
+			assertEquals(ByteBuffer.wrap(expected), one);
+			assertEquals(1, wr.getBuffers().size());
+			// the consolidated buffers stay with the writer, so the views retrieved before remain intact
+			assertEquals(0, pool.getRetained());
+			byte[] more = new byte[60];
+			Arrays.fill(more, (byte)'x');
+			wr.write(new BencodeString(more));
+			all.clear();
+			for (ByteBuffer b : bufs) {
+				b.rewind();
+				all.put(b);
+			}
+			assertArrayEquals(expected, all.array());
+		}
+		assertEquals(4, pool.getRetained());
+		assertTrue(pool.acquire(10).isDirect());
+		assertEquals(3, pool.getRetained());
+	}
+	
+	@Test
+	public void writeChannel() throws IOException {
+		byte[] pieces = new byte[20 * 1000];
+		new Random(1).nextBytes(pieces);
+		BencodeDictionary doc = new BencodeDictionary()
+			.put("announce", "http://tracker/announce")
+			.put("info", new BencodeDictionary().put("length", 123456).put("name", "file").put("pieces", new BencodeString(pieces)));
+		byte[] expected = BencodeArrayWriter.writeAll(doc);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		List<ByteBuffer> submitted = new ArrayList<>();
+		int[] calls = new int[1];
+		GatheringByteChannel ch = new GatheringByteChannel() {
+			@Override
+			public long write(ByteBuffer[] srcs, int offset, int length) {
+				calls[0]++;
+				long n = 0;
+				for (int i = offset; i < offset + length; i++) {
+					submitted.add(srcs[i].duplicate());
+					n += write(srcs[i]);
+				}
+				return n;
+			}
+			@Override public long write(ByteBuffer[] srcs) { return write(srcs, 0, srcs.length); }
+			@Override public int write(ByteBuffer src) {
+				int n = src.remaining();
+				while (src.hasRemaining()) out.write(src.get());
+				return n;
+			}
+			@Override public boolean isOpen() { return true; }
+			@Override public void close() { }
+		};
+		
+		try (BencodeChannelWriter wr = new BencodeChannelWriter(ch)) {
+			wr.write(doc);
+			assertEquals(expected.length, wr.getPosition());
+		}
+		assertArrayEquals(expected, out.toByteArray());
+		assertEquals(1, calls[0]);
+		assertEquals(3, submitted.size());
+		assertTrue(submitted.get(1).array() == pieces);
+		// the fragments around the payload are encoded into the scratch buffer and submitted from there
+		assertTrue(submitted.get(0).array() == submitted.get(2).array());
+		assertEquals(submitted.get(0).limit(), submitted.get(2).position());
+		
+		// documents larger than the scratch buffer are submitted in parts, reusing the buffer
+		BencodeList many = new BencodeList();
+		for (int n = 0; n < 1000; n++) many.add(new BencodeDictionary().put("n", n).put("s", "value " + n));
+		out.reset();
+		try (BencodeChannelWriter wr = new BencodeChannelWriter(ch, false, 256)) {
+			wr.write(many).write(doc);
+			assertEquals(expected.length + BencodeArrayWriter.writeAll(many).length, wr.getPosition());
+		}
+		assertArrayEquals(BencodeArrayWriter.writeAll(many, doc), out.toByteArray());
+		
+		// strings exceeding a small scratch buffer are submitted as payloads as well
+		byte[] hash = new byte[100];
+		new Random(2).nextBytes(hash);
+		BencodeObject small = new BencodeList().add("x").add(new BencodeString(hash)).add(1);
+		out.reset();
+		submitted.clear();
+		calls[0] = 0;
+		try (BencodeChannelWriter wr = new BencodeChannelWriter(ch, false, 64)) {
+			wr.write(small);
+		}
+		assertArrayEquals(BencodeArrayWriter.writeAll(small), out.toByteArray());
+		assertEquals(1, calls[0]);
+		assertTrue(submitted.get(1).array() == hash);
+	}
+	
+	@Test
+	public void readFile() throws IOException {
+		byte[] in = ("d8:announce23:http://tracker/announce4:infod6:lengthi123456e4:name4:file6:pieces40:"
+			+ "0123456789012345678901234567890123456789ee" + "li1ei-2e3:abce").getBytes(StandardCharsets.US_ASCII);
+		List<BencodeObject> expected = BencodeArrayReader.readAll(in);
+		Path file = Files.createTempFile("bencode", ".torrent");
+		try {
+			Files.write(file, in);
+			try (FileChannel ch = FileChannel.open(file)) {
+				ch.position(0);
+				BencodeFileReader rd = new BencodeFileReader(ch, false, 16);
+				rd.setZeroCopy(true);
+				BencodeObject doc = rd.read();
+				assertArrayEquals(BencodeArrayWriter.writeAll(expected.get(0)), BencodeArrayWriter.writeAll(doc));
+				assertEquals("0123456789012345678901234567890123456789", doc.get("info").get("pieces").getString());
+				assertArrayEquals(BencodeArrayWriter.writeAll(expected.get(1)), BencodeArrayWriter.writeAll(rd.read()));
+				assertNull(rd.read());
+				assertEquals(in.length, rd.getOffset());
+				assertEquals(in.length, rd.getLength());
+				assertEquals(43, rd.getPosition(doc.get("info")).getStartOffset());
+				
+				ch.position(5);
+				rd = new BencodeFileReader(ch, true, 16);
+				try {
+					rd.read();
+					fail("Exception expected");
+				} catch (BencodeException e) {
+					assertTrue(e.getMessage().startsWith("Parsing error @1 "));
+				} finally {
+					rd.close();
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void readLongOffsets() throws IOException {
+		long gap = 1100000000L;
+		byte[][] parts = { ("l" + gap + ":").getBytes(), (gap + ":").getBytes(), "i5ee".getBytes() };
+		// stream of the parts, each but the last followed by a gap of zeros which is skipped without being produced
+		InputStream in = new InputStream() {
+			private int part = 0, index = 0;
+			private long zeros = 0;
+			
+			@Override
+			public int read() {
+				if (zeros > 0) {
+					zeros--;
+					return 0;
+				}
+				if (part == parts.length) return -1;
+				int b = parts[part][index++];
+				if (index == parts[part].length) {
+					part++;
+					index = 0;
+					zeros = part < parts.length ? gap : 0;
+				}
+				return b;
+			}
+			
+			@Override
+			public long skip(long n) {
+				long k = Math.min(n, zeros);
+				zeros -= k;
+				return k;
+			}
+		};
+		
+		BencodeStreamReader rd = new BencodeStreamReader(in, true, 16);
+		BencodeEventReader events = new BencodeEventReader(rd);
+		assertEquals(BencodeEventReader.Event.START_LIST, events.next());
+		assertEquals(BencodeEventReader.Event.STRING, events.next());
+		assertEquals(BencodeEventReader.Event.STRING, events.next());
+		assertEquals(gap + 12, events.getTokenOffset());
+		assertEquals(gap + 23, events.getDataOffset());
+		assertEquals(BencodeEventReader.Event.INTEGER, events.next());
+		assertEquals(2 * gap + 23, events.getTokenOffset());
+		assertEquals(BencodeEventReader.Event.END, events.next());
+		assertEquals(2 * gap + 27, rd.getOffset());
+		try {
+			rd.getPosition();
+			fail("Exception expected");
+		} catch (IllegalStateException e) {
+			System.out.println(e.getMessage());
+		}
+		assertNull(events.next());
+		rd.close();
+	}
+	
+	@Test
+	public void readParallel() throws IOException {
+		ByteBuffer all = ByteBuffer.allocate(1 << 16);
+		List<Long> offsets = new ArrayList<>();
+		for (int n = 0; all.position() < 60000; n++) {
+			offsets.add((long)all.position());
+			BencodeDictionary doc = new BencodeDictionary().put("n", n).put("q", "get_peers").put("pad", new BencodeString(new byte[n % 200]));
+			all.put(BencodeArrayWriter.writeAll(doc));
+		}
+		byte[] in = Arrays.copyOf(all.array(), all.position());
+		
+		BencodeParallelReader rd = new BencodeParallelReader(ByteBuffer.wrap(in));
+		rd.setBatchSize(1000);
+		rd.setSymbolTable(new BencodeSymbolTable(64));
+		List<BencodeParallelReader.Document> docs = rd.documents().collect(Collectors.toList());
+		assertEquals(offsets.size(), docs.size());
+		for (int n = 0; n < docs.size(); n++) {
+			assertEquals((long)offsets.get(n), docs.get(n).getOffset());
+			assertEquals(n, docs.get(n).getObject().get("n").getValue());
+		}
+		LongAdder sum = new LongAdder();
+		rd.forEach((doc, offset) -> sum.add(offset));
+		assertEquals(offsets.stream().mapToLong(Long::longValue).sum(), sum.sum());
+		
+		Path file = Files.createTempFile("bencode", ".log");
+		try {
+			Files.write(file, in);
+			try (FileChannel ch = FileChannel.open(file)) {
+				rd = new BencodeParallelReader(ch, 100);
+				rd.setZeroCopy(true);
+				rd.setBatchSize(5000);
+				assertEquals(offsets.size(), rd.stream().filter(o -> o.get("q").getString().equals("get_peers")).count());
+				assertEquals((long)offsets.get(offsets.size() - 1), rd.documents().reduce((a, b) -> b).get().getOffset());
+				
+				// offsets are counted from the initial position of the channel, like the ones of the file reader
+				long first = offsets.get(1);
+				ch.position(first);
+				rd = new BencodeParallelReader(ch, 100);
+				List<BencodeParallelReader.Document> rest = rd.documents().collect(Collectors.toList());
+				ch.position(first);
+				BencodeFileReader frd = new BencodeFileReader(ch, false, 100);
+				frd.setTracking(BencodeIO.Tracking.TOP_LEVEL);
+				for (int n = 0; n < 3; n++) {
+					BencodeObject o = frd.read();
+					assertEquals(offsets.get(n + 1) - first, rest.get(n).getOffset());
+					assertEquals(frd.getPosition(o).getStartOffset(), rest.get(n).getOffset());
+				}
+			}
+			
+			// top-level string crossing the window
+			Files.write(file, "i1e10:abcdefghiji2e".getBytes());
+			try (FileChannel ch = FileChannel.open(file)) {
+				rd = new BencodeParallelReader(ch, 8);
+				assertEquals("[1, abcdefghij, 2]", rd.stream().map(o -> o.isString() ? o.getString() : String.valueOf(o.getValue())).collect(Collectors.toList()).toString());
+			}
+		} finally {
+			Files.delete(file);
+		}
+		
+		in[(int)(long)offsets.get(100)] = 'x';
+		try {
+			new BencodeParallelReader(ByteBuffer.wrap(in)).stream().count();
+			fail("Exception expected");
+		} catch (UncheckedIOException e) {
+			System.out.println(e.getCause().getMessage());
+			assertEquals("Parsing error @" + (offsets.get(100) + 1) + " in object starting @" + offsets.get(100), e.getCause().getMessage());
+		}
+	}
+	
+	@Test
+	public void writeParallel() throws IOException {
+		Random rnd = new Random(1);
+		BencodeDictionary doc = new BencodeDictionary();
+		BencodeList list = new BencodeList();
+		for (int n = 0; n < 5000; n++) {
+			list.add(new BencodeList().add(n).add("item " + n));
+			doc.put("key " + n, new BencodeDictionary().put("size", rnd.nextInt()).put("items", new BencodeList().add(n)));
+		}
+		doc.put("list", list);
+		doc.put("pieces", new BencodeString(new byte[20000]));
+		byte[] expected = BencodeArrayWriter.writeAll(doc);
+		
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			wr.setParallel(pool);
+			wr.setParallelThreshold(100);
+			wr.setTracking(BencodeIO.Tracking.FULL);
+			assertArrayEquals(expected, wr.write(doc).toByteArray());
+			
+			BencodeObject inner = list.get(4321);
+			byte[] encoded = BencodeArrayWriter.writeAll(inner);
+			BencodeIO.Range r = wr.getPosition(inner);
+			assertArrayEquals(encoded, Arrays.copyOfRange(expected, r.getStart(), r.getEnd()));
+			assertEquals(expected.length, wr.getPosition(doc).getEnd());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void readIndexed() throws IOException {
+		BencodeDictionary doc = new BencodeDictionary();
+		BencodeList list = new BencodeList();
+		for (int n = 0; n < 3000; n++) {
+			list.add(new BencodeList().add(n).add("item " + n).add(new BencodeDictionary().put("x", n)));
+			doc.put("key " + n, new BencodeDictionary().put("size", n * 7L).put("items", new BencodeList().add(n)));
+		}
+		doc.put("list", list);
+		doc.put("pieces", new BencodeString(new byte[5000]));
+		byte[] in = BencodeArrayWriter.writeAll(new BencodeList().add(doc).add(new BencodeList()));
+		
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for (boolean rawKeys : new boolean[] { false, true }) {
+				BencodeBufferReader expected = new BencodeBufferReader(ByteBuffer.wrap(in));
+				BencodeIndexedReader rd = new BencodeIndexedReader(ByteBuffer.wrap(in));
+				expected.setRawKeys(rawKeys);
+				rd.setRawKeys(rawKeys);
+				rd.setPool(pool);
+				rd.setSplitSize(100);
+				BencodeObject e = expected.read(), o = rd.read();
+				assertTrue(rawKeys == o.get(0) instanceof BencodeRawDictionary);
+				assertArrayEquals(in, BencodeArrayWriter.writeAll(o));
+				assertEquals(in.length, rd.getPosition());
+				assertNull(rd.read());
+				
+				List<BencodeObject> objs = new ArrayList<>(rd.getObjects()), expectedObjs = new ArrayList<>(expected.getObjects());
+				assertEquals(expectedObjs.size(), objs.size());
+				for (int n = 0; n < objs.size(); n++) {
+					assertArrayEquals(BencodeArrayWriter.writeAll(expectedObjs.get(n)), BencodeArrayWriter.writeAll(objs.get(n)));
+					assertEquals(expected.getPosition(expectedObjs.get(n)).getStart(), rd.getPosition(objs.get(n)).getStart());
+					assertEquals(expected.getPosition(expectedObjs.get(n)).getEnd(), rd.getPosition(objs.get(n)).getEnd());
+				}
+				assertTrue(objs.get(objs.size() - 1) == o);
+				assertTrue(expectedObjs.get(expectedObjs.size() - 1) == e);
+				
+				// keys of split dictionaries are taken from the symbol table like those read sequentially
+				BencodeDictionary shallow = new BencodeDictionary();
+				for (String k : new String[] { "announce", "info", "nodes", "url-list" }) shallow.put(k, list.get(0));
+				byte[] split = BencodeArrayWriter.writeAll(shallow);
+				BencodeSymbolTable symbols = new BencodeSymbolTable(64);
+				expected = new BencodeBufferReader(ByteBuffer.wrap(split));
+				rd = new BencodeIndexedReader(ByteBuffer.wrap(split));
+				expected.setRawKeys(rawKeys);
+				rd.setRawKeys(rawKeys);
+				expected.setSymbolTable(symbols);
+				rd.setSymbolTable(symbols);
+				rd.setPool(pool);
+				rd.setSplitSize(20);
+				e = expected.read();
+				o = rd.read();
+				Iterator<?> keys = rawKeys ? ((BencodeRawDictionary)o).getRawKeys().iterator() : o.getKeys().iterator();
+				for (Object k : rawKeys ? ((BencodeRawDictionary)e).getRawKeys() : e.getKeys()) assertTrue(k == keys.next());
+			}
+
+			// documents not exceeding the split size are read sequentially, also when followed by more input
+			byte[] small = BencodeArrayWriter.writeAll(list.get(0), doc.get("key 5"), list.get(1), list);
+			BencodeBufferReader expected = new BencodeBufferReader(ByteBuffer.wrap(small));
+			BencodeIndexedReader rd = new BencodeIndexedReader(ByteBuffer.wrap(small));
+			expected.setTracking(BencodeIO.Tracking.FULL);
+			rd.setTracking(BencodeIO.Tracking.FULL);
+			rd.setPool(pool);
+			rd.setSplitSize(100);
+			for (int n = 0; n < 4; n++) {
+				assertArrayEquals(BencodeArrayWriter.writeAll(expected.read()), BencodeArrayWriter.writeAll(rd.read()));
+				assertEquals(expected.getPosition(), rd.getPosition());
+			}
+			assertNull(rd.read());
+			List<BencodeObject> objs = new ArrayList<>(rd.getObjects()), expectedObjs = new ArrayList<>(expected.getObjects());
+			assertEquals(expectedObjs.size(), objs.size());
+			for (int n = 0; n < objs.size(); n++) {
+				assertEquals(expected.getPosition(expectedObjs.get(n)).getStart(), rd.getPosition(objs.get(n)).getStart());
+				assertEquals(expected.getPosition(expectedObjs.get(n)).getEnd(), rd.getPosition(objs.get(n)).getEnd());
+			}
+
+			// malformed input is reported as by the sequential reader
+			byte[] bad = Arrays.copyOf(in, in.length - 2);
+			String message = null;
+			try {
+				new BencodeBufferReader(ByteBuffer.wrap(bad)).read();
+				fail();
+			} catch (BencodeException e) {
+				message = e.getMessage();
+			}
+			rd = new BencodeIndexedReader(ByteBuffer.wrap(bad));
+			rd.setPool(pool);
+			rd.setSplitSize(100);
+			try {
+				rd.read();
+				fail();
+			} catch (BencodeException e) {
+				assertEquals(message, e.getMessage());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void readProjection() throws IOException {
+		byte[] pieces = new byte[100000];
+		BencodeDictionary doc = new BencodeDictionary()
+			.put("announce", "http://tracker/announce")
+			.put("comment", "skipped")
+			.put("info", new BencodeDictionary()
+				.put("files", new BencodeList()
+					.add(new BencodeDictionary().put("length", 1).put("path", new BencodeList().add("a")))
+					.add(new BencodeDictionary().put("path", new BencodeList().add("b")))
+					.add(new BencodeDictionary().put("length", 3).put("path", new BencodeList().add("c"))))
+				.put("name", "test")
+				.put("pieces", new BencodeString(pieces)));
+		byte[] in = BencodeArrayWriter.writeAll(doc);
+		BencodeProjection proj = BencodeProjection.compile("announce", "info/name", "info/length", "info/files/*/length");
+		String expected = "d8:announce23:http://tracker/announce4:infod5:filesld6:lengthi1eeded6:lengthi3eee4:name4:testee";
+		
+		long[] read = new long[1];
+		InputStream strm = new ByteArrayInputStream(in) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				int n = super.read(b, off, Math.min(len, 256));
+				if (n > 0) read[0] += n;
+				return n;
+			}
+		};
+		BencodeStreamReader rd = new BencodeStreamReader(strm, true, 256);
+		BencodeObject o = proj.read(rd);
+		assertEquals(expected, new String(BencodeArrayWriter.writeAll(o)));
+		assertEquals(in.length, rd.getPosition());
+		assertTrue(read[0] < 2000);
+		assertNull(proj.read(rd));
+		
+		BencodeBufferReader brd = new BencodeBufferReader(ByteBuffer.wrap(in));
+		brd.setRawKeys(true);
+		o = proj.read(brd);
+		assertTrue(o instanceof BencodeRawDictionary);
+		assertEquals(expected, new String(BencodeArrayWriter.writeAll(o)));
+		BencodeObject name = o.get("info").get("name");
+		assertEquals("test", name.getString());
+		int at = new String(in, StandardCharsets.ISO_8859_1).indexOf("4:test");
+		assertEquals(at, brd.getPosition(name).getStart());
+		assertEquals(0, brd.getPosition(o).getStart());
+		assertEquals(in.length, brd.getPosition(o).getEnd());
+		
+		assertEquals(new String(in, StandardCharsets.ISO_8859_1), new String(BencodeArrayWriter.writeAll(
+			BencodeProjection.compile("").read(new BencodeArrayReader(in))), StandardCharsets.ISO_8859_1));
+		assertEquals("d4:infod5:filesldededeeee", new String(BencodeArrayWriter.writeAll(
+			BencodeProjection.of(new String[] { "info", "files", "*", "length", "x" }).read(new BencodeArrayReader(in)))));
+		
+		// overlapping wildcard and key paths select the union
+		byte[] nested = "d1:xd1:ai1e1:bi2ee1:yd1:ai3e1:ci4eee".getBytes();
+		assertEquals("d1:xd1:ai1e1:bi2ee1:yd1:ai3eee", new String(BencodeArrayWriter.writeAll(
+			BencodeProjection.compile("*/a", "x/b").read(new BencodeArrayReader(nested)))));
+		assertEquals("d1:xd1:ai1e1:bi2ee1:yd1:ai3eee", new String(BencodeArrayWriter.writeAll(
+			BencodeProjection.compile("x/b", "*/a").read(new BencodeArrayReader(nested)))));
+		assertEquals("d1:xd1:ai1e1:bi2ee1:yd1:ai3e1:ci4eee", new String(BencodeArrayWriter.writeAll(
+			BencodeProjection.compile("*/a", "x/b", "*").read(new BencodeArrayReader(nested)))));
+	}
+	
+	@Test
+	public void validate() {
+		BencodeValidator v = new BencodeValidator();
+		assertEquals(BencodeValidator.Status.CANONICAL, v.validate("d1:ali1ei-2e0:e1:bd1:xi0eee".getBytes()));
+		assertNull(v.getViolation());
+		assertEquals(-1, v.getViolationOffset());
+		assertEquals(2, v.getDepth());
+		assertEquals(3, v.getIntegerCount());
+		assertEquals(4, v.getStringCount());
+		assertEquals(1, v.getListCount());
+		assertEquals(2, v.getDictionaryCount());
+		
+		String[][] cases = {
+			{ "d1:bi1e1:ai2ee", "NON_CANONICAL", "UNSORTED_KEYS", "7" },
+			{ "d1:ai1e1:ai2ee", "NON_CANONICAL", "DUPLICATE_KEY", "7" },
+			{ "li01ei-0ee", "NON_CANONICAL", "LEADING_ZERO", "1" },
+			{ "li1ei-0ee", "NON_CANONICAL", "NEGATIVE_ZERO", "4" },
+			{ "02:ab", "NON_CANONICAL", "LEADING_ZERO", "0" },
+			{ "i1ei2e", "NON_CANONICAL", "TRAILING_BYTES", "3" },
+			{ "d1:bi1e1:ai1-e", "INVALID", "MALFORMED_NUMBER", "12" },
+			{ "li1e", "INVALID", "END_OF_INPUT", "4" },
+			{ "5:abc", "INVALID", "END_OF_INPUT", "5" },
+			{ "di1ei2ee", "INVALID", "ILLEGAL_KEY", "1" },
+			{ "d1:ae", "INVALID", "MISSING_VALUE", "4" },
+			{ "lxe", "INVALID", "UNKNOWN_TOKEN", "1" },
+			{ "", "INVALID", "END_OF_INPUT", "0" }
+		};
+		for (String[] c : cases) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(c[0].length() + 1);
+			buf.put((byte)'x').put(c[0].getBytes()).flip().position(1);
+			assertEquals(BencodeValidator.Status.valueOf(c[1]), v.validate(buf));
+			assertEquals(BencodeValidator.Violation.valueOf(c[2]), v.getViolation());
+			assertEquals(Integer.parseInt(c[3]), v.getViolationOffset());
+			assertEquals(1, buf.position());
+		}
+		
+		v.setMaxDepth(2);
+		assertEquals(BencodeValidator.Status.INVALID, v.validate("llleee".getBytes()));
+		assertEquals(BencodeValidator.Violation.DEPTH_EXCEEDED, v.getViolation());
+		assertTrue(v.getViolation().isInvalid());
+	}
+	
+	static class Peer {
+		String ip;
+		int port;
+		@BencodeCodec.Key("peer id")
+		@BencodeCodec.Optional
+		byte[] id;
+	}
+	
+	static class AnnounceResponse {
+		long interval;
+		@BencodeCodec.Optional
+		@BencodeCodec.Key("warning message")
+		String warning;
+		List<Peer> peers;
+		@BencodeCodec.Optional
+		BencodeDictionary extra;
+		boolean complete;
+		@BencodeCodec.Ignore
+		String note = "local";
+		
+		private AnnounceResponse() {
+		}
+	}
+	
+	@Test
+	public void bindCodec() throws IOException {
+		BencodeCodec<AnnounceResponse> codec = BencodeCodec.of(AnnounceResponse.class);
+		assertTrue(codec == BencodeCodec.of(AnnounceResponse.class));
+		assertEquals("[complete, extra, interval, peers, warning message]", Arrays.toString(codec.getKeys()));
+		
+		BencodeArrayReader rd = new BencodeArrayReader("d8:completei1e8:intervali1800e5:peersld2:ip7:1.2.3.44:porti6881eed2:ip7:5.6.7.87:peer id2:xy4:porti51413eee7:unknownli1eee".getBytes());
+		AnnounceResponse r = codec.read(rd);
+		assertEquals(1800, r.interval);
+		assertTrue(r.complete);
+		assertNull(r.warning);
+		assertNull(r.extra);
+		assertEquals("local", r.note);
+		assertEquals(2, r.peers.size());
+		assertEquals("1.2.3.4", r.peers.get(0).ip);
+		assertEquals(6881, r.peers.get(0).port);
+		assertNull(r.peers.get(0).id);
+		assertArrayEquals("xy".getBytes(), r.peers.get(1).id);
+		assertNull(codec.read(rd));
+		
+		r.warning = "slow down";
+		r.extra = new BencodeDictionary().put("b", new BencodeList().add(2)).put("a", 1);
+		byte[] out;
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			codec.write(wr, r);
+			out = wr.toByteArray();
+			assertEquals(21, wr.getPosition(r.extra).getStartOffset());
+		}
+		assertEquals("d8:completei1e5:extrad1:ai1e1:bli2eee8:intervali1800e5:peersld2:ip7:1.2.3.44:porti6881eed2:ip7:5.6.7.87:peer id2:xy4:porti51413eee15:warning message9:slow downe", new String(out));
+		AnnounceResponse back = codec.read(new BencodeArrayReader(out));
+		assertEquals("slow down", back.warning);
+		assertEquals(1, back.extra.get("a").getValue());
+		
+		String[][] errors = {
+			{ "d8:intervali1e5:peerslee", "Missing key 'complete'" },
+			{ "d8:completei1e8:interval1:x5:peerslee", "Expected integer" },
+			{ "d8:completei1e8:intervali1e5:peersli1eee", "Expected dictionary" },
+			{ "d8:completei1e5:extrali1ee8:intervali1e5:peerslee", "Expected BencodeDictionary" },
+			{ "d8:completei1e8:intervali1e5:peersld2:ip1:x4:porti9999999999eeee", "Integer out of range" }
+		};
+		for (String[] e : errors) {
+			try {
+				codec.read(new BencodeArrayReader(e[0].getBytes()));
+				fail(e[0]);
+			} catch (BencodeException ex) {
+				assertTrue(ex.getCause().getMessage().startsWith(e[1]), ex.getCause().getMessage());
+			}
+		}
+		
+		r.peers = null;
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			codec.write(wr, r);
+			fail();
+		} catch (BencodeException e) {
+			assertTrue(e.getMessage().contains("peers"));
+		}
+	}
+	
+	static class Blob {
+		byte[] b;
+	}
+	
+	@Test
+	public void bindCodecChannel() throws IOException {
+		Blob blob = new Blob();
+		blob.b = new byte[20000];
+		new Random(2).nextBytes(blob.b);
+		byte[] expected = BencodeArrayWriter.writeAll(new BencodeDictionary().put("b", new BencodeString(blob.b.clone())));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (BencodeChannelWriter wr = new BencodeChannelWriter(Channels.newChannel(out))) {
+			BencodeCodec.of(Blob.class).write(wr, blob);
+			// passed on entirely, the payload is no longer referenced
+			assertArrayEquals(expected, out.toByteArray());
+			blob.b[0]++;
+			wr.flush();
+			assertEquals(expected.length, out.size());
+			assertEquals(expected.length, wr.getPosition());
+		}
+	}
+	
+	@Test
+	public void recordViews() throws IOException {
+		BencodeRecords.Builder peers = new BencodeRecords.Builder(BencodeRecords.PEER_WIDTH, 1);
+		peers.addPeer(0x7F000001, 6881).addPeer(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte)200 }), 51413));
+		BencodeString str = peers.build();
+		assertEquals(12, str.getLength());
+		peers.addPeer(0x01020304, 1);
+		assertEquals(12, str.getLength());
+		
+		byte[] doc;
+		try (BencodeArrayWriter wr = new BencodeArrayWriter()) {
+			wr.write(new BencodeDictionary().put("peers", peers.build()));
+			doc = wr.toByteArray();
+		}
+		ByteBuffer in = ByteBuffer.allocateDirect(doc.length);
+		in.put(doc).flip();
+		BencodeBufferReader rd = new BencodeBufferReader(in);
+		rd.setZeroCopy(true);
+		BencodeRecords view = new BencodeRecords(rd.read().get("peers"), BencodeRecords.PEER_WIDTH);
+		assertEquals(3, view.getCount());
+		assertEquals(0x7F000001, view.getIPv4(0));
+		assertEquals(6881, view.getPort(0));
+		assertEquals(51413, view.getPort(1));
+		assertEquals("/10.0.0.200:51413", view.getSocketAddress(1).toString());
+		assertEquals(0, view.compareRecord(2, new byte[] { 1, 2, 3, 4, 0, 1 }));
+		assertTrue(view.compareRecord(1, new byte[] { 1, 2, 3, 4, 0, 1 }) > 0);
+		assertEquals(2, view.indexOf(new byte[] { 1, 2, 3, 4, 0, 1 }));
+		int n = 0;
+		for (ByteBuffer r : view) {
+			assertEquals(BencodeRecords.PEER_WIDTH, r.remaining());
+			assertEquals(view.byteAt(n++, 0), r.get(r.position()));
+		}
+		assertEquals(3, n);
+		
+		BencodeRecords.Builder hashes = new BencodeRecords.Builder(BencodeRecords.HASH_WIDTH);
+		byte[] hash = new byte[BencodeRecords.HASH_WIDTH];
+		for (int h = 0; h < 100; h++) {
+			hash[0] = (byte)(h * 2);
+			hashes.add(hash);
+		}
+		BencodeRecords pieces = hashes.toRecords();
+		assertEquals(100, pieces.getCount());
+		hash[0] = (byte)180;
+		assertEquals(90, pieces.binarySearch(hash));
+		hash[0] = (byte)181;
+		assertEquals(-92, pieces.binarySearch(hash));
+		assertArrayEquals(pieces.record(90), new BencodeRecords.Builder(BencodeRecords.HASH_WIDTH).add(pieces, 90).toRecords().record(0));
+		
+		BencodeRecords nodes = new BencodeRecords.Builder(BencodeRecords.NODE6_WIDTH)
+			.addNode(hash, InetAddress.getByName("::1"), 443).toRecords();
+		assertEquals(0, nodes.getIPv6High(0));
+		assertEquals(1, nodes.getIPv6Low(0));
+		assertEquals(443, nodes.getPort(0));
+		try {
+			new BencodeRecords(new BencodeString("abcde"), BencodeRecords.PEER_WIDTH);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			pieces.getPort(0);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+	
+	@Test
+	public void stringifyBounded() {
+		BencodeObject doc = new BencodeDictionary()
+			.put("a", new BencodeList().add(1).add(2).add(3).add(4))
+			.put("b", "ABCDEFGHIJKLMNOPQRSTUVWXYZ")
+			.put("c", new BencodeDictionary().put("x", new BencodeList().add(5)));
+		StringWriter out = new StringWriter();
+		BencodeStringifier str = new BencodeStringifier(out, "", " ", true, null).setMaxElements(2).setMaxStringBytes(4).setMaxDepth(2);
+		str.visit(doc);
+		assertEquals("Dictionary(3)\n [a]: List(4)\n  Integer(1)\n  Integer(2)\n  \u20262 more elements\n [b]: String(26)\n  41424344\u202622 more bytes\n \u20261 more elements", out.toString());
+		assertFalse(str.isTruncated());
+		
+		str = new BencodeStringifier(new StringBuilder(), "", " ", false, null).setMaxDepth(1);
+		assertEquals("Dictionary(3)\n [a]: List(4)\n  \u20264 more elements\n [b]: String(26)\n [c]: Dictionary(1)\n  \u20261 more elements", str.visit(doc).toString());
+		
+		str = new BencodeStringifier(new StringBuilder(), "", " ", false, null).setMaxOutput(20);
+		assertEquals("Dictionary(3)\n [a]: \u2026", str.visit(doc).toString());
+		assertTrue(str.isTruncated());
+		assertEquals(doc.toString(true), new BencodeStringifier(new StringWriter(), "", "  ", true, null).visit(doc).toString());
+	}
+
 }